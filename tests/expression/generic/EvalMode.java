@@ -5,45 +5,232 @@ import base.function.TernaryOperator;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.Objects;
 import java.util.function.BinaryOperator;
 import java.util.function.IntFunction;
+import java.util.function.Supplier;
 import java.util.function.UnaryOperator;
 
 public record EvalMode<T>(
         IntFunction<T> constant,
         Map<String, UnaryOperator<TernaryOperator<T>>> monadics,
-        Map<String, BinaryOperator<TernaryOperator<T>>> dyadics
+        Map<String, BinaryOperator<TernaryOperator<T>>> dyadics,
+        Map<String, Properties<T>> monadicProperties,
+        Map<String, Properties<T>> dyadicProperties,
+        Operators<T> operators,
+        Summation<T> summation,
+        int cost
 ) {
+    /**
+     * The operations as they were added, for evaluators that apply them to values directly
+     * instead of composing lifted {@link TernaryOperator}s.
+     */
+    /* package-private */ record Operators<T>(
+            Map<String, UnaryOperator<T>> unaries,
+            Map<String, BinaryOperator<T>> binaries
+    ) {
+    }
+
+    /**
+     * Algebraic properties declared for a single operation of a mode.
+     * Nothing is assumed about an operation unless it is declared here, so
+     * {@link #none()} is always a safe choice.
+     *
+     * <p>For unary operations only {@code isTotal} ({@code f(x)} never throws) and
+     * {@code isIdempotent} ({@code f(f(x)) == f(x)}) are meaningful.
+     * For binary operations {@code identity} and {@code absorbing} are two-sided,
+     * {@code isIdempotent} means {@code op(x, x) == x}, and {@code null} stands for
+     * "not declared".
+     *
+     * @param <T> the type of the mode values
+     */
+    public record Properties<T>(
+            boolean isCommutative,
+            boolean isAssociative,
+            T identity,
+            T absorbing,
+            boolean isTotal,
+            boolean isIdempotent
+    ) {
+        public static <T> Properties<T> none() {
+            return new Properties<>(false, false, null, null, false, false);
+        }
+
+        public Properties<T> commutative() {
+            return new Properties<>(true, isAssociative, identity, absorbing, isTotal, isIdempotent);
+        }
+
+        public Properties<T> associative() {
+            return new Properties<>(isCommutative, true, identity, absorbing, isTotal, isIdempotent);
+        }
+
+        public Properties<T> identity(final T identity) {
+            return new Properties<>(isCommutative, isAssociative, Objects.requireNonNull(identity), absorbing, isTotal, isIdempotent);
+        }
+
+        public Properties<T> absorbing(final T absorbing) {
+            return new Properties<>(isCommutative, isAssociative, identity, Objects.requireNonNull(absorbing), isTotal, isIdempotent);
+        }
+
+        public Properties<T> total() {
+            return new Properties<>(isCommutative, isAssociative, identity, absorbing, true, isIdempotent);
+        }
+
+        public Properties<T> idempotent() {
+            return new Properties<>(isCommutative, isAssociative, identity, absorbing, isTotal, true);
+        }
+    }
+
+    /**
+     * Mutable running total of a chain of additions and subtractions.
+     *
+     * @param <T> the type of the mode values
+     */
+    public interface Accumulator<T> {
+        void add(T value);
+
+        void subtract(T value);
+
+        T result();
+    }
+
+    /**
+     * Declares that any chain of the {@code plus} and {@code minus} operations, such as
+     * {@code a - (b - c) + d}, may be evaluated as a signed sum of its terms with a fresh
+     * accumulator. Only exact arithmetic can declare this: the result must not depend on
+     * the order of the terms.
+     *
+     * @param <T> the type of the mode values
+     */
+    public record Summation<T>(String plus, String minus, Supplier<Accumulator<T>> accumulator) {
+    }
+
     /* package-private */ static class Builder<T> {
         private final IntFunction<T> constant;
         private final Map<String, UnaryOperator<TernaryOperator<T>>> monadics = new HashMap<>();
         private final Map<String, BinaryOperator<TernaryOperator<T>>> dyadics = new HashMap<>();
+        private final Map<String, Properties<T>> monadicProperties = new HashMap<>();
+        private final Map<String, Properties<T>> dyadicProperties = new HashMap<>();
+        private final Map<String, UnaryOperator<T>> unaries = new HashMap<>();
+        private final Map<String, BinaryOperator<T>> binaries = new HashMap<>();
+        private Summation<T> summation;
+        private int cost = 1;
 
         private Builder(final IntFunction<T> constant) {
             this.constant = constant;
         }
 
         public Builder<T> add(final String name, final UnaryOperator<T> unary) {
+            return add(name, unary, Properties.none());
+        }
+
+        public Builder<T> add(final String name, final UnaryOperator<T> unary, final Properties<T> properties) {
             monadics.put(
                     name,
                     expr -> (x, y, z) -> unary.apply(expr.apply(x, y, z))
             );
+            monadicProperties.put(name, Objects.requireNonNull(properties));
+            unaries.put(name, unary);
             return this;
         }
 
         public Builder<T> add(final String name, final BinaryOperator<T> binary) {
+            return add(name, binary, Properties.none());
+        }
+
+        public Builder<T> add(final String name, final BinaryOperator<T> binary, final Properties<T> properties) {
             dyadics.put(
                     name,
                     (expr1, expr2) -> (x, y, z) -> binary.apply(expr1.apply(x, y, z), expr2.apply(x, y, z))
             );
+            dyadicProperties.put(name, Objects.requireNonNull(properties));
+            binaries.put(name, binary);
+            return this;
+        }
+
+        public Builder<T> summation(final String plus, final String minus, final Supplier<Accumulator<T>> accumulator) {
+            summation = new Summation<>(plus, minus, Objects.requireNonNull(accumulator));
+            return this;
+        }
+
+        /**
+         * Declares the typical cost of one operation relative to {@code int} arithmetic, used to pick an evaluation strategy.
+         */
+        public Builder<T> cost(final int cost) {
+            if (cost <= 0) {
+                throw new IllegalArgumentException("Cost must be positive: " + cost);
+            }
+            this.cost = cost;
             return this;
         }
 
         public EvalMode<T> build() {
-            return new EvalMode<>(constant, Collections.unmodifiableMap(monadics), Collections.unmodifiableMap(dyadics));
+            if (summation != null && !(dyadics.containsKey(summation.plus()) && dyadics.containsKey(summation.minus()))) {
+                throw new IllegalArgumentException("Summation of unknown operations " + summation.plus() + " and " + summation.minus());
+            }
+            return new EvalMode<>(
+                    constant,
+                    Collections.unmodifiableMap(monadics),
+                    Collections.unmodifiableMap(dyadics),
+                    Collections.unmodifiableMap(monadicProperties),
+                    Collections.unmodifiableMap(dyadicProperties),
+                    new Operators<>(Collections.unmodifiableMap(unaries), Collections.unmodifiableMap(binaries)),
+                    summation,
+                    cost
+            );
         }
     }
     public static <T> Builder<T> builder(final IntFunction<T> constant) {
         return new Builder<>(constant);
     }
+
+    private static <V> V supported(final String kind, final String name, final Map<String, V> operations, final Map<String, ?> lifted) {
+        if (!operations.containsKey(name)) {
+            throw new IllegalArgumentException(kind + " operation \"" + name + "\" is not supported. Supported ones are: " + lifted);
+        }
+        return operations.get(name);
+    }
+
+    /* package-private */ UnaryOperator<TernaryOperator<T>> monadic(final String name) {
+        return supported("Unary", name, monadics, monadics);
+    }
+
+    /* package-private */ BinaryOperator<TernaryOperator<T>> dyadic(final String name) {
+        return supported("Binary", name, dyadics, dyadics);
+    }
+
+    /* package-private */ UnaryOperator<T> unary(final String name) {
+        return supported("Unary", name, operators.unaries(), monadics);
+    }
+
+    /* package-private */ BinaryOperator<T> binary(final String name) {
+        return supported("Binary", name, operators.binaries(), dyadics);
+    }
+
+    /* package-private */ static <T> TernaryOperator<T> variable(final String name) {
+        return switch (name) {
+            case "x" -> (x, y, z) -> x;
+            case "y" -> (x, y, z) -> y;
+            case "z" -> (x, y, z) -> z;
+            default -> throw new IllegalArgumentException("Variable with name \"" + name + "\"");
+        };
+    }
+
+    /* package-private */ TernaryOperator<T> literal(final int value) {
+        try {
+            final T converted = constant.apply(value);
+            return (x, y, z) -> converted;
+        } catch (final RuntimeException e) {
+            // Keep the failure where the plain evaluation would raise it.
+            return (x, y, z) -> constant.apply(value);
+        }
+    }
+
+    public Properties<T> propertiesOfMonadic(final String name) {
+        return monadicProperties.getOrDefault(name, Properties.none());
+    }
+
+    public Properties<T> propertiesOfDyadic(final String name) {
+        return dyadicProperties.getOrDefault(name, Properties.none());
+    }
 }
@@ -0,0 +1,156 @@
+package expression.generic;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.math.BigInteger;
+import java.util.Map;
+
+/* package-private */ final class EvalModes {
+    private EvalModes() {
+    }
+
+    /* package-private */ static final EvalMode<Integer> INTEGER = EvalMode
+            .builder(x -> x)
+            .add("-", x -> -x, EvalMode.Properties.<Integer>none().total())
+            .add("count", Integer::bitCount, EvalMode.Properties.<Integer>none().total())
+            .add("+", Integer::sum, EvalMode.Properties.<Integer>none().commutative().associative().identity(0).total())
+            .add("-", (x, y) -> x - y, EvalMode.Properties.<Integer>none().total())
+            .add("*", (x, y) -> x * y, EvalMode.Properties.<Integer>none().commutative().associative().identity(1).absorbing(0).total())
+            .add("/", (x, y) -> x / y)
+            .build();
+
+    // Deliberately ugly and slow code
+    private static long check(final BigInteger bi) {
+        if (bi.compareTo(BigInteger.valueOf(Long.MIN_VALUE)) >= 0 && bi.compareTo(BigInteger.valueOf(Long.MAX_VALUE)) <= 0) {
+            return bi.longValue();
+        } else {
+            throw new RuntimeException("long out of bounds");
+        }
+    }
+
+    /* package-private */ static final EvalMode<Long> LONG_CHECKED = EvalMode
+            .builder(x -> (long) x)
+            .add("-", x -> check(BigInteger.valueOf(x).negate()))
+            .add("count", x -> (long) Long.bitCount(x), EvalMode.Properties.<Long>none().total())
+            .add("+", (x, y) -> check(BigInteger.valueOf(x).add(BigInteger.valueOf(y))), EvalMode.Properties.<Long>none().commutative().identity(0L))
+            .add("-", (x, y) -> check(BigInteger.valueOf(x).subtract(BigInteger.valueOf(y))))
+            .add("*", (x, y) -> check(BigInteger.valueOf(x).multiply(BigInteger.valueOf(y))), EvalMode.Properties.<Long>none().commutative().identity(1L).absorbing(0L))
+            .add("/", (x, y) -> check(BigInteger.valueOf(x).divide(BigInteger.valueOf(y))))
+            .cost(16)
+            .build();
+
+    // BigInteger.parallelMultiply appeared in Java 19, the harness still has to run on Java 17
+    private static final MethodHandle PARALLEL_MULTIPLY = findParallelMultiply();
+
+    // BigInteger.multiply uses Toom-Cook 3, the only algorithm parallelMultiply splits across threads,
+    // once both operands reach the Karatsuba threshold and one of them reaches the Toom-Cook one
+    private static final int KARATSUBA_BITS = 80 * Integer.SIZE;
+    private static final int TOOM_COOK_BITS = 240 * Integer.SIZE;
+
+    private static MethodHandle findParallelMultiply() {
+        try {
+            return MethodHandles.publicLookup().findVirtual(
+                    BigInteger.class, "parallelMultiply", MethodType.methodType(BigInteger.class, BigInteger.class)
+            );
+        } catch (final NoSuchMethodException | IllegalAccessException e) {
+            return null;
+        }
+    }
+
+    /* package-private */ static boolean hasParallelMultiply() {
+        return PARALLEL_MULTIPLY != null;
+    }
+
+    /* package-private */ static BigInteger multiply(final BigInteger x, final BigInteger y) {
+        if (PARALLEL_MULTIPLY == null
+                || Math.min(x.bitLength(), y.bitLength()) < KARATSUBA_BITS
+                || Math.max(x.bitLength(), y.bitLength()) < TOOM_COOK_BITS) {
+            return x.multiply(y);
+        }
+        try {
+            return (BigInteger) PARALLEL_MULTIPLY.invokeExact(x, y);
+        } catch (final RuntimeException | Error e) {
+            throw e;
+        } catch (final Throwable e) {
+            throw new AssertionError("parallelMultiply has no checked exceptions", e);
+        }
+    }
+
+    /**
+     * Sums terms that fit into a {@code long} without allocating,
+     * only larger terms and overflows go through {@link BigInteger}.
+     */
+    private static final class BigSum implements EvalMode.Accumulator<BigInteger> {
+        private long small;
+        private BigInteger big = BigInteger.ZERO;
+
+        @Override
+        public void add(final BigInteger value) {
+            if (value.bitLength() >= Long.SIZE) {
+                big = big.add(value);
+                return;
+            }
+            final long term = value.longValue();
+            final long sum = small + term;
+            if (((small ^ sum) & (term ^ sum)) < 0) {
+                big = big.add(BigInteger.valueOf(small)).add(value);
+                small = 0;
+            } else {
+                small = sum;
+            }
+        }
+
+        @Override
+        public void subtract(final BigInteger value) {
+            if (value.bitLength() >= Long.SIZE) {
+                big = big.subtract(value);
+                return;
+            }
+            final long term = value.longValue();
+            final long difference = small - term;
+            if (((small ^ term) & (small ^ difference)) < 0) {
+                big = big.add(BigInteger.valueOf(small)).subtract(value);
+                small = 0;
+            } else {
+                small = difference;
+            }
+        }
+
+        @Override
+        public BigInteger result() {
+            return big.signum() == 0 ? BigInteger.valueOf(small) : big.add(BigInteger.valueOf(small));
+        }
+    }
+
+    /* package-private */ static final EvalMode<BigInteger> BIG_INTEGER = EvalMode
+            .builder(BigInteger::valueOf)
+            .add("-", BigInteger::negate, EvalMode.Properties.<BigInteger>none().total())
+            .add("count", x -> BigInteger.valueOf(x.bitCount()), EvalMode.Properties.<BigInteger>none().total())
+            .add("+", BigInteger::add, EvalMode.Properties.<BigInteger>none().commutative().associative().identity(BigInteger.ZERO).total())
+            .add("-", BigInteger::subtract, EvalMode.Properties.<BigInteger>none().total())
+            .add("*", EvalModes::multiply, EvalMode.Properties.<BigInteger>none().commutative().associative().identity(BigInteger.ONE).absorbing(BigInteger.ZERO).total())
+            .add("/", BigInteger::divide)
+            .summation("+", "-", BigSum::new)
+            .cost(8)
+            .build();
+
+    private static int trunc(final int i) {
+        return i / 10 * 10;
+    }
+
+    /* package-private */ static final EvalMode<Integer> INTEGER_TRUNCATE = EvalMode
+            .builder(EvalModes::trunc)
+            .add("-", x -> trunc(-x), EvalMode.Properties.<Integer>none().total())
+            .add("count", x -> trunc(Integer.bitCount(x)), EvalMode.Properties.<Integer>none().total())
+            // Truncation after overflow breaks associativity, and 1 is not a value of this mode
+            .add("+", (x, y) -> trunc(x + y), EvalMode.Properties.<Integer>none().commutative().identity(0).total())
+            .add("-", (x, y) -> trunc(x - y), EvalMode.Properties.<Integer>none().total())
+            .add("*", (x, y) -> trunc(x * y), EvalMode.Properties.<Integer>none().commutative().absorbing(0).total())
+            .add("/", (x, y) -> trunc(x / y))
+            .cost(2)
+            .build();
+
+
+    /* package-private */ static final Map<String, EvalMode<?>> MODES = Map.of("i", INTEGER, "bi", BIG_INTEGER, "lC", LONG_CHECKED, "iT", INTEGER_TRUNCATE);
+}
@@ -0,0 +1,407 @@
+package expression.generic;
+
+import base.function.TernaryOperator;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.Objects;
+import java.util.function.BinaryOperator;
+import java.util.function.Supplier;
+import java.util.function.UnaryOperator;
+
+/**
+ * Rewrites an {@link ExprNode} using only the {@link EvalMode.Properties} declared by the mode
+ * and compiles the result into a {@link TernaryOperator}.
+ * For operations without declared properties the compiled operator behaves exactly like
+ * a straightforward evaluation of the original tree, including the cases where it throws.
+ *
+ * @param <T> the type of the mode values
+ */
+public final class ExprOptimizer<T> {
+    private final EvalMode<T> mode;
+
+    public ExprOptimizer(final EvalMode<T> mode) {
+        this.mode = Objects.requireNonNull(mode);
+    }
+
+    private sealed interface Node<T> {
+    }
+
+    private record Const<T>(T value) implements Node<T> {
+    }
+
+    private record Literal<T>(int value) implements Node<T> {
+    }
+
+    private record Var<T>(String name) implements Node<T> {
+    }
+
+    private record Unary<T>(String name, Node<T> arg) implements Node<T> {
+    }
+
+    private record Binary<T>(String name, Node<T> arg1, Node<T> arg2) implements Node<T> {
+    }
+
+    private record Term<T>(Node<T> node, boolean negated) {
+    }
+
+    private record Sum<T>(List<Term<T>> terms) implements Node<T> {
+    }
+
+    public TernaryOperator<T> compile(final ExprNode expression) {
+        return compile(optimize(expression));
+    }
+
+    /* package-private */ int depth(final ExprNode expression) {
+        return depth(optimize(expression));
+    }
+
+    /* package-private */ String shape(final ExprNode expression) {
+        return shape(optimize(expression));
+    }
+
+    private String shape(final Node<T> node) {
+        final EvalMode.Summation<T> summation = mode.summation();
+        if (node instanceof final Const<T> c) {
+            return String.valueOf(c.value());
+        } else if (node instanceof final Literal<T> literal) {
+            return String.valueOf(literal.value());
+        } else if (node instanceof final Var<T> variable) {
+            return variable.name();
+        } else if (node instanceof final Unary<T> unary) {
+            return unary.name() + "(" + shape(unary.arg()) + ")";
+        } else if (node instanceof final Binary<T> binary) {
+            return "(" + shape(binary.arg1()) + binary.name() + shape(binary.arg2()) + ")";
+        } else if (node instanceof final Sum<T> sum) {
+            final StringBuilder result = new StringBuilder("(");
+            for (final Term<T> term : sum.terms()) {
+                if (term.negated() || result.length() > 1) {
+                    result.append(term.negated() ? summation.minus() : summation.plus());
+                }
+                result.append(shape(term.node()));
+            }
+            return result.append(")").toString();
+        } else {
+            throw new AssertionError("Unknown node " + node);
+        }
+    }
+
+    private static <T> int depth(final Node<T> node) {
+        if (node instanceof final Unary<T> unary) {
+            return 1 + depth(unary.arg());
+        } else if (node instanceof final Binary<T> binary) {
+            return 1 + Math.max(depth(binary.arg1()), depth(binary.arg2()));
+        } else if (node instanceof final Sum<T> sum) {
+            return 1 + sum.terms().stream().mapToInt(term -> depth(term.node())).max().orElse(0);
+        } else {
+            return 1;
+        }
+    }
+
+    private Node<T> optimize(final ExprNode expression) {
+        return expression.<Node<T>>get(
+                this::constant,
+                this::variable,
+                (name, arg) -> unary(name, optimize(arg)),
+                this::binary
+        );
+    }
+
+    private Node<T> variable(final String name) {
+        // Rejects unknown variables right away
+        EvalMode.variable(name);
+        return new Var<>(name);
+    }
+
+    private Node<T> constant(final int value) {
+        try {
+            return new Const<>(mode.constant().apply(value));
+        } catch (final RuntimeException e) {
+            // Cannot be folded, compiled through EvalMode.literal instead
+            return new Literal<>(value);
+        }
+    }
+
+    private boolean isTotal(final Node<T> node) {
+        if (node instanceof final Unary<T> unary) {
+            return mode.propertiesOfMonadic(unary.name()).isTotal() && isTotal(unary.arg());
+        } else if (node instanceof final Binary<T> binary) {
+            return mode.propertiesOfDyadic(binary.name()).isTotal() && isTotal(binary.arg1()) && isTotal(binary.arg2());
+        } else if (node instanceof final Sum<T> sum) {
+            return mode.propertiesOfDyadic(mode.summation().plus()).isTotal()
+                    && mode.propertiesOfDyadic(mode.summation().minus()).isTotal()
+                    && sum.terms().stream().allMatch(term -> isTotal(term.node()));
+        } else {
+            return !(node instanceof Literal);
+        }
+    }
+
+    private static <T> boolean isConst(final Node<T> node, final T value) {
+        return value != null && node instanceof final Const<T> c && value.equals(c.value());
+    }
+
+    private Node<T> unary(final String name, final Node<T> arg) {
+        final UnaryOperator<TernaryOperator<T>> operation = mode.monadic(name);
+        final EvalMode.Properties<T> properties = mode.propertiesOfMonadic(name);
+        if (properties.isIdempotent() && arg instanceof final Unary<T> inner && inner.name().equals(name)) {
+            return arg;
+        }
+        if (properties.isTotal() && arg instanceof final Const<T> c) {
+            return new Const<>(operation.apply((x, y, z) -> c.value()).apply(null, null, null));
+        }
+        return new Unary<>(name, arg);
+    }
+
+    private Node<T> binary(final String name, final ExprNode expr1, final ExprNode expr2) {
+        final BinaryOperator<TernaryOperator<T>> operation = mode.dyadic(name);
+        final EvalMode.Properties<T> properties = mode.propertiesOfDyadic(name);
+        if (isSummed(name)) {
+            final List<Term<T>> terms = new ArrayList<>();
+            collectTerms(name, expr1, expr2, terms);
+            return sum(terms);
+        }
+        if (properties.isAssociative()) {
+            final List<Node<T>> operands = new ArrayList<>();
+            collect(name, expr1, operands);
+            collect(name, expr2, operands);
+            return chain(name, operation, properties, operands);
+        }
+        final Node<T> arg1 = optimize(expr1);
+        final Node<T> arg2 = optimize(expr2);
+        if (isConst(arg2, properties.identity())) {
+            return arg1;
+        }
+        if (isConst(arg1, properties.identity())) {
+            return arg2;
+        }
+        if (isConst(arg1, properties.absorbing()) && isTotal(arg2)
+                || isConst(arg2, properties.absorbing()) && isTotal(arg1)) {
+            return new Const<>(properties.absorbing());
+        }
+        if (properties.isIdempotent() && arg1.equals(arg2)) {
+            return arg1;
+        }
+        if (properties.isTotal() && arg1 instanceof final Const<T> c1 && arg2 instanceof final Const<T> c2) {
+            return new Const<>(fold(operation, c1.value(), c2.value()));
+        }
+        return new Binary<>(name, arg1, arg2);
+    }
+
+    // The whole chain is collected once at its top, so every operand is optimized only once
+    private void collect(final String name, final ExprNode expression, final List<Node<T>> operands) {
+        final Deque<ExprNode> pending = new ArrayDeque<>();
+        pending.push(expression);
+        while (!pending.isEmpty()) {
+            final ExprNode node = pending.pop();
+            final List<ExprNode> args = node.get(
+                    value -> null,
+                    variable -> null,
+                    (unaryName, arg) -> null,
+                    (binaryName, arg1, arg2) -> binaryName.equals(name) ? List.of(arg1, arg2) : null
+            );
+            if (args != null) {
+                pending.push(args.get(1));
+                pending.push(args.get(0));
+            } else {
+                // Other rewrites may still produce a chain of the same operation, e.g. (x + y) * 1
+                flatten(name, optimize(node), operands);
+            }
+        }
+    }
+
+    private boolean isSummed(final String name) {
+        final EvalMode.Summation<T> summation = mode.summation();
+        return summation != null && (name.equals(summation.plus()) || name.equals(summation.minus()));
+    }
+
+    private record Pending(ExprNode node, boolean negated) {
+    }
+
+    // Like collect, but across both operations of the summation, keeping the sign of every term
+    private void collectTerms(final String name, final ExprNode expr1, final ExprNode expr2, final List<Term<T>> terms) {
+        final Deque<Pending> pending = new ArrayDeque<>();
+        pending.push(new Pending(expr2, name.equals(mode.summation().minus())));
+        pending.push(new Pending(expr1, false));
+        while (!pending.isEmpty()) {
+            final Pending current = pending.pop();
+            final boolean negated = current.negated();
+            final List<Pending> args = current.node().get(
+                    value -> null,
+                    variable -> null,
+                    (unaryName, arg) -> null,
+                    (binaryName, arg1, arg2) -> isSummed(binaryName)
+                            ? List.of(new Pending(arg1, negated), new Pending(arg2, negated ^ binaryName.equals(mode.summation().minus())))
+                            : null
+            );
+            if (args != null) {
+                pending.push(args.get(1));
+                pending.push(args.get(0));
+            } else {
+                final Node<T> node = optimize(current.node());
+                if (node instanceof final Sum<T> sum) {
+                    for (final Term<T> term : sum.terms()) {
+                        terms.add(new Term<>(term.node(), term.negated() ^ negated));
+                    }
+                } else {
+                    terms.add(new Term<>(node, negated));
+                }
+            }
+        }
+    }
+
+    private Node<T> sum(final List<Term<T>> terms) {
+        final EvalMode.Accumulator<T> constants = mode.summation().accumulator().get();
+        boolean folded = false;
+        final List<Term<T>> result = new ArrayList<>();
+        for (final Term<T> term : terms) {
+            if (term.node() instanceof final Const<T> c) {
+                if (term.negated()) {
+                    constants.subtract(c.value());
+                } else {
+                    constants.add(c.value());
+                }
+                folded = true;
+            } else {
+                result.add(term);
+            }
+        }
+        if (folded) {
+            final T constant = constants.result();
+            if (result.isEmpty() || !constant.equals(mode.propertiesOfDyadic(mode.summation().plus()).identity())) {
+                result.add(new Term<>(new Const<>(constant), false));
+            }
+        }
+        if (result.size() == 1 && !result.get(0).negated()) {
+            return result.get(0).node();
+        }
+        return new Sum<>(List.copyOf(result));
+    }
+
+    private static <T> void flatten(final String name, final Node<T> node, final List<Node<T>> operands) {
+        if (node instanceof final Binary<T> binary && binary.name().equals(name)) {
+            flatten(name, binary.arg1(), operands);
+            flatten(name, binary.arg2(), operands);
+        } else {
+            operands.add(node);
+        }
+    }
+
+    private static <T> T fold(final BinaryOperator<TernaryOperator<T>> operation, final T value1, final T value2) {
+        return operation.apply((x, y, z) -> value1, (x, y, z) -> value2).apply(null, null, null);
+    }
+
+    private Node<T> chain(
+            final String name,
+            final BinaryOperator<TernaryOperator<T>> operation,
+            final EvalMode.Properties<T> properties,
+            final List<Node<T>> operands
+    ) {
+        List<Node<T>> current = operands;
+        if (properties.isTotal()) {
+            current = foldConstants(operation, properties.isCommutative(), current);
+        }
+        if (properties.identity() != null) {
+            current = current.stream().filter(node -> !isConst(node, properties.identity())).toList();
+        }
+        if (properties.absorbing() != null
+                && current.stream().anyMatch(node -> isConst(node, properties.absorbing()))
+                && current.stream().allMatch(this::isTotal)) {
+            return new Const<>(properties.absorbing());
+        }
+        if (properties.isIdempotent()) {
+            current = removeDuplicates(properties.isCommutative(), current);
+        }
+        if (current.isEmpty()) {
+            return new Const<>(properties.identity());
+        }
+        return balanced(name, current, 0, current.size());
+    }
+
+    // Balanced trees keep operands of growing types (such as BigInteger products) similar in size
+    private static <T> Node<T> balanced(final String name, final List<Node<T>> operands, final int from, final int to) {
+        if (to - from == 1) {
+            return operands.get(from);
+        }
+        final int middle = (from + to) >>> 1;
+        return new Binary<>(name, balanced(name, operands, from, middle), balanced(name, operands, middle, to));
+    }
+
+    private static <T> List<Node<T>> foldConstants(
+            final BinaryOperator<TernaryOperator<T>> operation,
+            final boolean commutative,
+            final List<Node<T>> operands
+    ) {
+        final List<Node<T>> result = new ArrayList<>();
+        T pending = null;
+        for (final Node<T> node : operands) {
+            if (node instanceof final Const<T> c) {
+                pending = pending == null ? c.value() : fold(operation, pending, c.value());
+            } else {
+                if (pending != null && !commutative) {
+                    result.add(new Const<>(pending));
+                    pending = null;
+                }
+                result.add(node);
+            }
+        }
+        if (pending != null) {
+            result.add(new Const<>(pending));
+        }
+        return result;
+    }
+
+    private static <T> List<Node<T>> removeDuplicates(final boolean commutative, final List<Node<T>> operands) {
+        final List<Node<T>> result = new ArrayList<>();
+        for (final Node<T> node : operands) {
+            final boolean duplicate = commutative
+                    ? result.contains(node)
+                    : !result.isEmpty() && result.get(result.size() - 1).equals(node);
+            if (!duplicate) {
+                result.add(node);
+            }
+        }
+        return result;
+    }
+
+    private TernaryOperator<T> compileSum(final List<Term<T>> terms) {
+        final Supplier<EvalMode.Accumulator<T>> accumulator = mode.summation().accumulator();
+        final List<TernaryOperator<T>> operators = terms.stream().map(term -> compile(term.node())).toList();
+        final boolean[] negated = new boolean[terms.size()];
+        for (int i = 0; i < negated.length; i++) {
+            negated[i] = terms.get(i).negated();
+        }
+        return (x, y, z) -> {
+            final EvalMode.Accumulator<T> total = accumulator.get();
+            for (int i = 0; i < negated.length; i++) {
+                final T value = operators.get(i).apply(x, y, z);
+                if (negated[i]) {
+                    total.subtract(value);
+                } else {
+                    total.add(value);
+                }
+            }
+            return total.result();
+        };
+    }
+
+    private TernaryOperator<T> compile(final Node<T> node) {
+        if (node instanceof final Const<T> c) {
+            final T value = c.value();
+            return (x, y, z) -> value;
+        } else if (node instanceof final Literal<T> literal) {
+            return mode.literal(literal.value());
+        } else if (node instanceof final Var<T> variable) {
+            return EvalMode.variable(variable.name());
+        } else if (node instanceof final Unary<T> unary) {
+            return mode.monadic(unary.name()).apply(compile(unary.arg()));
+        } else if (node instanceof final Binary<T> binary) {
+            return mode.dyadic(binary.name()).apply(compile(binary.arg1()), compile(binary.arg2()));
+        } else if (node instanceof final Sum<T> sum) {
+            return compileSum(sum.terms());
+        } else {
+            throw new AssertionError("Unknown node " + node);
+        }
+    }
+}
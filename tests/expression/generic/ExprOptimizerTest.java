@@ -0,0 +1,239 @@
+package expression.generic;
+
+import expression.generic.ExprTestSupport.Range;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.JUnitCore;
+import org.junit.runner.Result;
+import org.junit.runner.notification.Failure;
+
+import java.math.BigInteger;
+import java.util.List;
+import java.util.Random;
+import java.util.stream.IntStream;
+
+import static expression.generic.ExprTestSupport.BOTTOM;
+import static expression.generic.ExprTestSupport.MIDDLE;
+import static expression.generic.ExprTestSupport.TOP;
+
+public class ExprOptimizerTest {
+    public static void main(String[] args) {
+        final Result res = new JUnitCore().run(ExprOptimizerTest.class);
+        for (final Failure fail : res.getFailures()) {
+            System.err.println(fail.getTestHeader() + ": " + fail.getMessage());
+        }
+        if (!res.wasSuccessful()) {
+            System.exit(1);
+        }
+    }
+
+    // Every operation is total, so only the declared algebra decides what gets rewritten
+    private static final EvalMode<Integer> LATTICE = EvalMode
+            .builder(x -> x)
+            .add("abs", Math::abs, EvalMode.Properties.<Integer>none().total().idempotent())
+            .add("-", x -> -x, EvalMode.Properties.<Integer>none().total())
+            .add("max", Math::max, EvalMode.Properties.<Integer>none().commutative().associative().identity(Integer.MIN_VALUE).total().idempotent())
+            .add("first", (x, y) -> x, EvalMode.Properties.<Integer>none().associative().total().idempotent())
+            .add("mean", (x, y) -> (x & y) + ((x ^ y) >> 1), EvalMode.Properties.<Integer>none().commutative().total().idempotent())
+            .build();
+
+    private static <T> void testOptimized(final ExprNode expression, final EvalMode<T> mode, final String modeName,
+                                          final Range xRange, final Range yRange, final Range zRange) {
+        ExprTestSupport.assertSameResults(
+                "Optimized", expression, new ExprOptimizer<>(mode).compile(expression),
+                mode, modeName, xRange, yRange, zRange
+        );
+    }
+
+    private static void testAllModes(final ExprNode expression) {
+        ExprTestSupport.forEachMode(expression, MIDDLE, MIDDLE, MIDDLE, ExprOptimizerTest::testOptimized);
+        ExprTestSupport.forEachMode(expression, BOTTOM, MIDDLE, TOP, ExprOptimizerTest::testOptimized);
+        ExprTestSupport.forEachMode(expression, TOP, BOTTOM, MIDDLE, ExprOptimizerTest::testOptimized);
+    }
+
+    private static <T> void assertShape(final String expected, final ExprNode expression, final EvalMode<T> mode, final String modeName) {
+        Assert.assertEquals(
+                "Optimized \"" + ExprTestSupport.repr(expression) + "\" in mode \"" + modeName + "\"",
+                expected,
+                new ExprOptimizer<>(mode).shape(expression)
+        );
+    }
+
+    @Test
+    public void testIdentity() {
+        final ExprNode plusZero = ExprNode.binary("+", ExprNode.variable("x"), ExprNode.constant(0));
+        final ExprNode oneTimes = ExprNode.binary("*", ExprNode.constant(1), ExprNode.variable("y"));
+        final ExprNode plusFive = ExprNode.binary("+", ExprNode.constant(5), ExprNode.variable("z"));
+        testAllModes(plusZero);
+        testAllModes(oneTimes);
+        testAllModes(plusFive);
+
+        assertShape("x", plusZero, EvalModes.INTEGER, "i");
+        assertShape("x", plusZero, EvalModes.LONG_CHECKED, "lC");
+        assertShape("x", plusZero, EvalModes.INTEGER_TRUNCATE, "iT");
+        assertShape("y", oneTimes, EvalModes.INTEGER, "i");
+        assertShape("y", oneTimes, EvalModes.BIG_INTEGER, "bi");
+        // 1 is truncated to 0 in "iT", which absorbs the product
+        assertShape("0", oneTimes, EvalModes.INTEGER_TRUNCATE, "iT");
+        assertShape("(z+5)", plusFive, EvalModes.INTEGER, "i");
+    }
+
+    @Test
+    public void testReassociation() {
+        final ExprNode sum = ExprNode.binary("+",
+                ExprNode.binary("+", ExprNode.variable("x"), ExprNode.constant(Integer.MAX_VALUE)),
+                ExprNode.binary("+", ExprNode.constant(Integer.MAX_VALUE), ExprNode.variable("y"))
+        );
+        final ExprNode product = ExprNode.binary("*",
+                ExprNode.binary("*", ExprNode.constant(-0xCAFE), ExprNode.variable("z")),
+                ExprNode.binary("*", ExprNode.variable("x"), ExprNode.constant(0xBABE))
+        );
+        testAllModes(sum);
+        testAllModes(product);
+
+        assertShape("(x+(y+-2))", sum, EvalModes.INTEGER, "i");
+        assertShape("(x+y+4294967294)", sum, EvalModes.BIG_INTEGER, "bi");
+        // Neither "lC" nor "iT" declares "+" associative
+        assertShape("((x+2147483647)+(2147483647+y))", sum, EvalModes.LONG_CHECKED, "lC");
+        assertShape("((x+2147483640)+(2147483640+y))", sum, EvalModes.INTEGER_TRUNCATE, "iT");
+        assertShape("(z*(x*" + -0xCAFE * 0xBABE + "))", product, EvalModes.INTEGER, "i");
+    }
+
+    @Test
+    public void testAbsorbing() {
+        final ExprNode timesZero = ExprNode.binary("*", ExprNode.variable("x"), ExprNode.constant(0));
+        final ExprNode partialTimesZero = ExprNode.binary("*",
+                ExprNode.binary("/", ExprNode.variable("x"), ExprNode.variable("y")),
+                ExprNode.constant(0)
+        );
+        final ExprNode zeroTimesNegated = ExprNode.binary("*",
+                ExprNode.constant(0),
+                ExprNode.unary("-", ExprNode.variable("z"))
+        );
+        testAllModes(timesZero);
+        testAllModes(partialTimesZero);
+        testAllModes(zeroTimesNegated);
+
+        assertShape("0", timesZero, EvalModes.INTEGER, "i");
+        assertShape("0", timesZero, EvalModes.LONG_CHECKED, "lC");
+        // Division may throw, so the product must still evaluate it
+        assertShape("((x/y)*0)", partialTimesZero, EvalModes.INTEGER, "i");
+        assertShape("((x/y)*0)", partialTimesZero, EvalModes.BIG_INTEGER, "bi");
+        assertShape("0", zeroTimesNegated, EvalModes.INTEGER, "i");
+        // Negation of Long.MIN_VALUE throws in "lC"
+        assertShape("(0*-(z))", zeroTimesNegated, EvalModes.LONG_CHECKED, "lC");
+    }
+
+    @Test
+    public void testConstantFolding() {
+        final ExprNode expression = ExprNode.binary("+",
+                ExprNode.unary("-", ExprNode.constant(Integer.MIN_VALUE)),
+                ExprNode.unary("count", ExprNode.constant(-1))
+        );
+        testAllModes(expression);
+
+        assertShape(String.valueOf(Integer.MIN_VALUE + 32), expression, EvalModes.INTEGER, "i");
+        assertShape("2147483648", expression, EvalModes.BIG_INTEGER, "bi");
+        assertShape("(-(-2147483648)+64)", expression, EvalModes.LONG_CHECKED, "lC");
+    }
+
+    private static ExprNode chain(final String name, final ExprNode... terms) {
+        ExprNode result = terms[0];
+        for (int i = 1; i < terms.length; i++) {
+            result = ExprNode.binary(name, result, terms[i]);
+        }
+        return result;
+    }
+
+    @Test
+    public void testSummation() {
+        final ExprNode x = ExprNode.variable("x");
+        final ExprNode y = ExprNode.variable("y");
+        final ExprNode z = ExprNode.variable("z");
+        final ExprNode mixed = ExprNode.binary("-",
+                ExprNode.binary("+", ExprNode.binary("-", x, ExprNode.binary("-", y, z)), ExprNode.constant(5)),
+                ExprNode.binary("-", x, ExprNode.constant(Integer.MIN_VALUE))
+        );
+        final ExprNode negatedOnly = chain("-", ExprNode.constant(0), x, y);
+        final ExprNode partial = ExprNode.binary("+",
+                ExprNode.binary("-", ExprNode.binary("/", x, y), ExprNode.binary("/", z, x)),
+                ExprNode.binary("*", ExprNode.binary("-", y, y), x)
+        );
+        // Squares near Integer.MAX_VALUE overflow a long after two terms, cubes never fit
+        final ExprNode square = ExprNode.binary("*", x, x);
+        final ExprNode cube = ExprNode.binary("*", square, z);
+        final ExprNode squares = chain("+", square, square, square, ExprNode.unary("-", square), square, square);
+        final ExprNode negatedSquares = chain("-", ExprNode.constant(0), square, square, square, cube, square);
+        for (final ExprNode expression : List.of(mixed, negatedOnly, partial, squares, negatedSquares)) {
+            testAllModes(expression);
+        }
+
+        assertShape("(x-y+z-x+-2147483643)", mixed, EvalModes.BIG_INTEGER, "bi");
+        assertShape("(-x-y)", negatedOnly, EvalModes.BIG_INTEGER, "bi");
+        assertShape("((x/y)-(z/x)+((y-y)*x))", partial, EvalModes.BIG_INTEGER, "bi");
+        assertShape("(-(x*x)-(x*x)-(x*x)-(x*(x*z))-(x*x))", negatedSquares, EvalModes.BIG_INTEGER, "bi");
+        // Only "bi" declares a summation
+        assertShape("(((x-(y-z))+5)-(x--2147483648))", mixed, EvalModes.INTEGER, "i");
+        assertShape("((0-x)-y)", negatedOnly, EvalModes.LONG_CHECKED, "lC");
+    }
+
+    @Test
+    public void testIdempotent() {
+        final ExprNode x = ExprNode.variable("x");
+        final ExprNode y = ExprNode.variable("y");
+        final ExprNode[] cases = {
+                ExprNode.unary("abs", ExprNode.unary("abs", ExprNode.unary("abs", x))),
+                ExprNode.unary("-", ExprNode.unary("-", x)),
+                ExprNode.binary("max", x, x),
+                ExprNode.binary("max", ExprNode.binary("max", x, y), ExprNode.binary("max", y, ExprNode.unary("abs", x))),
+                ExprNode.binary("max", ExprNode.unary("abs", y), ExprNode.unary("abs", y)),
+                ExprNode.binary("first", ExprNode.binary("first", x, x), y),
+                ExprNode.binary("first", x, ExprNode.binary("first", y, x)),
+                ExprNode.binary("mean", x, x),
+                ExprNode.binary("mean", x, ExprNode.binary("mean", x, y)),
+        };
+        final String[] shapes = {
+                "abs(x)",
+                "-(-(x))",
+                "x",
+                "(xmax(ymaxabs(x)))",
+                "abs(y)",
+                "(xfirsty)",
+                "(xfirst(yfirstx))",
+                "x",
+                "(xmean(xmeany))",
+        };
+        for (int i = 0; i < cases.length; i++) {
+            assertShape(shapes[i], cases[i], LATTICE, "lattice");
+            testOptimized(cases[i], LATTICE, "lattice", MIDDLE, BOTTOM, TOP);
+            testOptimized(cases[i], LATTICE, "lattice", TOP, MIDDLE, BOTTOM);
+        }
+    }
+
+    @Test
+    public void testLongChain() {
+        final ExprNode product = IntStream.range(0, 512)
+                .mapToObj(i -> ExprNode.binary("*", ExprNode.variable("xyz".substring(i % 3, i % 3 + 1)), ExprNode.constant(Integer.MAX_VALUE - i)))
+                .reduce((left, right) -> ExprNode.binary("*", left, right))
+                .orElseThrow();
+        final Range top = new Range(Integer.MAX_VALUE - 2, Integer.MAX_VALUE);
+        final EvalMode<BigInteger> mode = EvalModes.BIG_INTEGER;
+        testOptimized(product, mode, "bi", top, top, top);
+
+        // 512 variables and the folded constant, as a balanced tree
+        Assert.assertEquals("Depth of optimized product chain", 1 + 10, new ExprOptimizer<>(mode).depth(product));
+
+        // Around the Toom-Cook thresholds, where "bi" switches to parallelMultiply if the JVM has it
+        final Random rng = new Random(2718281828459045235L);
+        for (final int[] bits : new int[][]{{2559, 20000}, {2560, 7679}, {2560, 7680}, {7680, 7680}, {40000, 30000}}) {
+            final BigInteger a = new BigInteger(bits[0], rng).setBit(bits[0] - 1);
+            final BigInteger b = new BigInteger(bits[1], rng).setBit(bits[1] - 1).negate();
+            Assert.assertEquals("Product of " + bits[0] + " and " + bits[1] + " bits", a.multiply(b), EvalModes.multiply(a, b));
+        }
+    }
+
+    @Test
+    public void testRandom() {
+        ExprTestSupport.forRandomExpressions(3466180785632175934L, 200, ExprOptimizerTest::testOptimized);
+    }
+}
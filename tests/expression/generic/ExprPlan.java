@@ -0,0 +1,387 @@
+package expression.generic;
+
+import base.function.TernaryOperator;
+
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.BinaryOperator;
+import java.util.function.UnaryOperator;
+
+/**
+ * Flat, postfix-ordered form of an {@link ExprNode} tree or DAG with a compact binary encoding.
+ *
+ * <p>The encoding is a varint-prefixed table of interned operation and variable names followed
+ * by a varint-prefixed list of postfix instructions. Every instruction is a single varint
+ * holding a 3-bit tag and a payload: a zigzag-encoded constant, a name index, or, for a
+ * reference to an already encoded shared node, its index in the plan.
+ * {@link #readFrom(ByteBuffer)} decodes straight into the plan arrays without building
+ * an {@link ExprNode}.
+ */
+public final class ExprPlan {
+    private static final int CONSTANT = 0;
+    private static final int VARIABLE = 1;
+    private static final int UNARY = 2;
+    private static final int BINARY = 3;
+    private static final int REFERENCE = 4;
+    private static final int TAG_BITS = 3;
+
+    private final String[] names;
+    private final int[] kinds;
+    private final int[] payloads;
+    private final int[] args1;
+    private final int[] args2;
+
+    private ExprPlan(final String[] names, final int[] kinds, final int[] payloads, final int[] args1, final int[] args2) {
+        this.names = names;
+        this.kinds = kinds;
+        this.payloads = payloads;
+        this.args1 = args1;
+        this.args2 = args2;
+    }
+
+    public int size() {
+        return kinds.length;
+    }
+
+    public static ExprPlan of(final ExprNode expression) {
+        final Builder builder = new Builder();
+        builder.add(expression);
+        return builder.build();
+    }
+
+    private static final class Builder {
+        private final Map<ExprNode, Integer> indices = new IdentityHashMap<>();
+        private final Map<String, Integer> nameIndices = new HashMap<>();
+        private final List<String> names = new ArrayList<>();
+        private int[] kinds = new int[16];
+        private int[] payloads = new int[16];
+        private int[] args1 = new int[16];
+        private int[] args2 = new int[16];
+        private int size;
+
+        private int intern(final String name) {
+            return nameIndices.computeIfAbsent(name, key -> {
+                names.add(key);
+                return names.size() - 1;
+            });
+        }
+
+        private int append(final int kind, final int payload, final int arg1, final int arg2) {
+            if (size == kinds.length) {
+                kinds = Arrays.copyOf(kinds, size * 2);
+                payloads = Arrays.copyOf(payloads, size * 2);
+                args1 = Arrays.copyOf(args1, size * 2);
+                args2 = Arrays.copyOf(args2, size * 2);
+            }
+            kinds[size] = kind;
+            payloads[size] = payload;
+            args1[size] = arg1;
+            args2[size] = arg2;
+            return size++;
+        }
+
+        private static List<ExprNode> children(final ExprNode node) {
+            return node.get(
+                    value -> List.of(),
+                    name -> List.of(),
+                    (name, arg) -> List.of(arg),
+                    (name, arg1, arg2) -> List.of(arg1, arg2)
+            );
+        }
+
+        // Children are added before their parent, first argument first, with an explicit stack for deep chains
+        private int add(final ExprNode expression) {
+            final Deque<ExprNode> pending = new ArrayDeque<>();
+            pending.push(expression);
+            while (!pending.isEmpty()) {
+                final ExprNode node = pending.peek();
+                if (indices.containsKey(node)) {
+                    pending.pop();
+                    continue;
+                }
+                final List<ExprNode> missing = children(node).stream()
+                        .filter(child -> !indices.containsKey(child))
+                        .toList();
+                if (missing.isEmpty()) {
+                    pending.pop();
+                    indices.put(node, node.get(
+                            value -> append(CONSTANT, value, -1, -1),
+                            name -> append(VARIABLE, intern(name), -1, -1),
+                            (name, arg) -> append(UNARY, intern(name), indices.get(arg), -1),
+                            (name, arg1, arg2) -> append(BINARY, intern(name), indices.get(arg1), indices.get(arg2))
+                    ));
+                } else {
+                    for (int i = missing.size() - 1; i >= 0; i--) {
+                        pending.push(missing.get(i));
+                    }
+                }
+            }
+            return indices.get(expression);
+        }
+
+        private ExprPlan build() {
+            return new ExprPlan(
+                    names.toArray(String[]::new),
+                    Arrays.copyOf(kinds, size),
+                    Arrays.copyOf(payloads, size),
+                    Arrays.copyOf(args1, size),
+                    Arrays.copyOf(args2, size)
+            );
+        }
+    }
+
+    public ExprNode toExprNode() {
+        final ExprNode[] nodes = new ExprNode[size()];
+        for (int i = 0; i < nodes.length; i++) {
+            nodes[i] = switch (kinds[i]) {
+                case CONSTANT -> ExprNode.constant(payloads[i]);
+                case VARIABLE -> ExprNode.variable(names[payloads[i]]);
+                case UNARY -> ExprNode.unary(names[payloads[i]], nodes[args1[i]]);
+                default -> ExprNode.binary(names[payloads[i]], nodes[args1[i]], nodes[args2[i]]);
+            };
+        }
+        return nodes[nodes.length - 1];
+    }
+
+    private interface Step<T> {
+        T apply(List<T> values, T x, T y, T z);
+    }
+
+    /**
+     * Evaluates the nodes in plan order, every node applies the mode operation straight to
+     * the values of its arguments computed earlier in the same call, so shared nodes are
+     * evaluated once per call and no closures are created during evaluation.
+     */
+    public <T> TernaryOperator<T> compile(final EvalMode<T> mode) {
+        final List<Step<T>> steps = new ArrayList<>(size());
+        for (int i = 0; i < size(); i++) {
+            final int arg1 = args1[i];
+            final int arg2 = args2[i];
+            steps.add(switch (kinds[i]) {
+                case CONSTANT -> {
+                    final TernaryOperator<T> literal = mode.literal(payloads[i]);
+                    yield (values, x, y, z) -> literal.apply(x, y, z);
+                }
+                case VARIABLE -> {
+                    final TernaryOperator<T> variable = EvalMode.variable(names[payloads[i]]);
+                    yield (values, x, y, z) -> variable.apply(x, y, z);
+                }
+                case UNARY -> {
+                    final UnaryOperator<T> operation = mode.unary(names[payloads[i]]);
+                    yield (values, x, y, z) -> operation.apply(values.get(arg1));
+                }
+                default -> {
+                    final BinaryOperator<T> operation = mode.binary(names[payloads[i]]);
+                    yield (values, x, y, z) -> operation.apply(values.get(arg1), values.get(arg2));
+                }
+            });
+        }
+        return (x, y, z) -> {
+            final List<T> values = new ArrayList<>(steps.size());
+            for (final Step<T> step : steps) {
+                values.add(step.apply(values, x, y, z));
+            }
+            return values.get(values.size() - 1);
+        };
+    }
+
+    private static long zigzag(final int value) {
+        return Integer.toUnsignedLong((value << 1) ^ (value >> 31));
+    }
+
+    private static int unzigzag(final long value) {
+        return (int) (value >>> 1) ^ -(int) (value & 1);
+    }
+
+    private static int varintSize(final long value) {
+        int size = 1;
+        for (long rest = value >>> 7; rest != 0; rest >>>= 7) {
+            size++;
+        }
+        return size;
+    }
+
+    private static void writeVarint(final ByteBuffer buffer, final long value) {
+        long rest = value;
+        while ((rest & ~0x7FL) != 0) {
+            buffer.put((byte) (rest & 0x7F | 0x80));
+            rest >>>= 7;
+        }
+        buffer.put((byte) rest);
+    }
+
+    private static long readVarint(final ByteBuffer buffer) {
+        long value = 0;
+        for (int shift = 0; shift < Long.SIZE; shift += 7) {
+            final byte b = buffer.get();
+            if (shift == 63 && (b & 0xFF) > 1) {
+                throw new IllegalArgumentException("Varint does not fit into 64 bits");
+            }
+            value |= (long) (b & 0x7F) << shift;
+            if (b >= 0) {
+                return value;
+            }
+        }
+        throw new IllegalArgumentException("Varint is too long");
+    }
+
+    private static int readIndex(final ByteBuffer buffer, final int bound, final String what) {
+        final long value = readVarint(buffer);
+        if (value < 0 || value >= bound) {
+            throw new IllegalArgumentException(what + " " + value + " is out of range [0, " + bound + ")");
+        }
+        return (int) value;
+    }
+
+    private long instruction(final int index) {
+        final long payload = kinds[index] == CONSTANT ? zigzag(payloads[index]) : payloads[index];
+        return payload << TAG_BITS | kinds[index];
+    }
+
+    private long[] instructions() {
+        final long[] result = new long[size() * 3];
+        final boolean[] written = new boolean[size()];
+        final int[] stack = new int[size()];
+        final int[] state = new int[size()];
+        int count = 0;
+        int top = 0;
+        stack[top++] = size() - 1;
+        while (top > 0) {
+            final int index = stack[top - 1];
+            if (written[index] && state[index] == 0) {
+                result[count++] = (long) index << TAG_BITS | REFERENCE;
+                top--;
+            } else if (state[index] == 0 && args1[index] >= 0) {
+                state[index] = 1;
+                stack[top++] = args1[index];
+            } else if (state[index] <= 1 && args2[index] >= 0) {
+                state[index] = 2;
+                stack[top++] = args2[index];
+            } else {
+                result[count++] = instruction(index);
+                written[index] = true;
+                state[index] = 0;
+                top--;
+            }
+        }
+        return Arrays.copyOf(result, count);
+    }
+
+    private byte[][] encodedNames() {
+        final byte[][] result = new byte[names.length][];
+        for (int i = 0; i < names.length; i++) {
+            result[i] = names[i].getBytes(StandardCharsets.UTF_8);
+        }
+        return result;
+    }
+
+    public int encodedSize() {
+        int size = varintSize(names.length);
+        for (final byte[] name : encodedNames()) {
+            size += varintSize(name.length) + name.length;
+        }
+        final long[] instructions = instructions();
+        size += varintSize(instructions.length);
+        for (final long instruction : instructions) {
+            size += varintSize(instruction);
+        }
+        return size;
+    }
+
+    public void writeTo(final ByteBuffer buffer) {
+        final byte[][] encodedNames = encodedNames();
+        writeVarint(buffer, encodedNames.length);
+        for (final byte[] name : encodedNames) {
+            writeVarint(buffer, name.length);
+            buffer.put(name);
+        }
+        final long[] instructions = instructions();
+        writeVarint(buffer, instructions.length);
+        for (final long instruction : instructions) {
+            writeVarint(buffer, instruction);
+        }
+    }
+
+    public ByteBuffer toByteBuffer() {
+        final ByteBuffer buffer = ByteBuffer.allocate(encodedSize());
+        writeTo(buffer);
+        return buffer.flip();
+    }
+
+    public static ExprPlan readFrom(final ByteBuffer buffer) {
+        try {
+            final String[] names = new String[readIndex(buffer, buffer.remaining() + 1, "Name count")];
+            for (int i = 0; i < names.length; i++) {
+                final byte[] name = new byte[readIndex(buffer, buffer.remaining() + 1, "Name length")];
+                buffer.get(name);
+                names[i] = new String(name, StandardCharsets.UTF_8);
+            }
+
+            final int count = readIndex(buffer, buffer.remaining() + 1, "Instruction count");
+            final int[] kinds = new int[count];
+            final int[] payloads = new int[count];
+            final int[] args1 = new int[count];
+            final int[] args2 = new int[count];
+            final int[] stack = new int[count];
+            int size = 0;
+            int top = 0;
+            for (int i = 0; i < count; i++) {
+                final long instruction = readVarint(buffer);
+                final int kind = (int) (instruction & (1 << TAG_BITS) - 1);
+                final long payload = instruction >>> TAG_BITS;
+                if (kind == REFERENCE) {
+                    if (payload >= size) {
+                        throw new IllegalArgumentException("Reference to node " + payload + " before it is defined");
+                    }
+                    stack[top++] = (int) payload;
+                    continue;
+                }
+                final int arity = switch (kind) {
+                    case CONSTANT -> {
+                        if (payload > 0xFFFF_FFFFL) {
+                            throw new IllegalArgumentException("Constant does not fit into int");
+                        }
+                        payloads[size] = unzigzag(payload);
+                        yield 0;
+                    }
+                    case VARIABLE, UNARY, BINARY -> {
+                        if (payload >= names.length) {
+                            throw new IllegalArgumentException("Name index " + payload + " is out of range [0, " + names.length + ")");
+                        }
+                        payloads[size] = (int) payload;
+                        yield kind - VARIABLE;
+                    }
+                    default -> throw new IllegalArgumentException("Unknown instruction tag " + kind);
+                };
+                if (top < arity) {
+                    throw new IllegalArgumentException("Not enough operands for instruction " + i);
+                }
+                kinds[size] = kind;
+                args2[size] = arity == 2 ? stack[--top] : -1;
+                args1[size] = arity >= 1 ? stack[--top] : -1;
+                stack[top++] = size++;
+            }
+            if (top != 1 || stack[0] != size - 1) {
+                throw new IllegalArgumentException("Instructions do not form a single expression");
+            }
+            return new ExprPlan(
+                    names,
+                    Arrays.copyOf(kinds, size),
+                    Arrays.copyOf(payloads, size),
+                    Arrays.copyOf(args1, size),
+                    Arrays.copyOf(args2, size)
+            );
+        } catch (final BufferUnderflowException e) {
+            throw new IllegalArgumentException("Unexpected end of encoded expression", e);
+        }
+    }
+}
@@ -0,0 +1,149 @@
+package expression.generic;
+
+import base.function.TernaryOperator;
+import expression.generic.ExprTestSupport.Range;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.JUnitCore;
+import org.junit.runner.Result;
+import org.junit.runner.notification.Failure;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import static expression.generic.ExprTestSupport.BOTTOM;
+import static expression.generic.ExprTestSupport.MIDDLE;
+import static expression.generic.ExprTestSupport.TOP;
+
+public class ExprPlanTest {
+    public static void main(String[] args) {
+        final Result res = new JUnitCore().run(ExprPlanTest.class);
+        for (final Failure fail : res.getFailures()) {
+            System.err.println(fail.getTestHeader() + ": " + fail.getMessage());
+        }
+        if (!res.wasSuccessful()) {
+            System.exit(1);
+        }
+    }
+
+    private static <T> void testPlan(final ExprNode expression, final EvalMode<T> mode, final String modeName,
+                                     final Range xRange, final Range yRange, final Range zRange) {
+        final String repr = ExprTestSupport.repr(expression);
+        final ExprPlan plan = ExprPlan.of(expression);
+        final ByteBuffer buffer = plan.toByteBuffer();
+        Assert.assertEquals("Encoded size of \"" + repr + "\"", plan.encodedSize(), buffer.remaining());
+
+        final ExprPlan decoded = ExprPlan.readFrom(buffer);
+        Assert.assertFalse("Bytes left after decoding \"" + repr + "\"", buffer.hasRemaining());
+        Assert.assertEquals("Decoded size of \"" + repr + "\"", plan.size(), decoded.size());
+        Assert.assertEquals("Decoded \"" + repr + "\"", repr, ExprTestSupport.repr(decoded.toExprNode()));
+        Assert.assertEquals("Re-encoded \"" + repr + "\"", plan.toByteBuffer(), decoded.toByteBuffer());
+
+        testCompiled(expression, decoded, mode, modeName, xRange, yRange, zRange);
+    }
+
+    private static void testPlan(final ExprNode expression, final Range xRange, final Range yRange, final Range zRange) {
+        ExprTestSupport.forEachMode(expression, xRange, yRange, zRange, ExprPlanTest::testPlan);
+    }
+
+    private static <T> void testCompiled(final ExprNode expression, final ExprPlan plan,
+                                         final EvalMode<T> mode, final String modeName,
+                                         final Range xRange, final Range yRange, final Range zRange) {
+        ExprTestSupport.assertSameResults("Decoded plan of", expression, plan.compile(mode), mode, modeName, xRange, yRange, zRange);
+    }
+
+    private static ExprNode squarings(final int count) {
+        ExprNode shared = ExprNode.binary("+", ExprNode.variable("x"), ExprNode.constant(3));
+        for (int i = 0; i < count; i++) {
+            shared = ExprNode.binary("*", shared, shared);
+        }
+        return shared;
+    }
+
+    @Test
+    public void testRoundTrip() {
+        testPlan(ExprNode.constant(Integer.MIN_VALUE), MIDDLE, MIDDLE, MIDDLE);
+        testPlan(ExprNode.constant(Integer.MAX_VALUE), MIDDLE, MIDDLE, MIDDLE);
+        testPlan(ExprNode.variable("z"), BOTTOM, MIDDLE, TOP);
+        testPlan(
+                ExprNode.unary("count",
+                        ExprNode.binary("/",
+                                ExprNode.binary("-", ExprNode.variable("x"), ExprNode.constant(-1)),
+                                ExprNode.unary("-", ExprNode.variable("y"))
+                        )
+                ),
+                TOP, BOTTOM, MIDDLE
+        );
+    }
+
+    @Test
+    public void testSharedNodes() {
+        final ExprNode shared = squarings(10);
+        final ExprPlan plan = ExprPlan.of(shared);
+        Assert.assertEquals("Shared nodes are stored once", 13, plan.size());
+        // Names "x", "+", "*" take 7 bytes, then the count and 23 one-byte instructions: x, 3, + and (reference, *) ten times
+        Assert.assertEquals("Shared nodes are encoded by reference", 7 + 1 + 23, plan.encodedSize());
+
+        final Range zero = new Range(0, 0);
+        testCompiled(shared, ExprPlan.readFrom(plan.toByteBuffer()), EvalModes.BIG_INTEGER, "bi", MIDDLE, zero, zero);
+    }
+
+    @Test
+    public void testSharedNodesEvaluatedOnce() {
+        // 2^28 paths lead to the shared leaves, a tree-shaped evaluation would never finish
+        final TernaryOperator<Integer> compiled = ExprPlan.readFrom(ExprPlan.of(squarings(28)).toByteBuffer()).compile(EvalModes.INTEGER);
+        for (int x = -5; x <= 5; x++) {
+            int expected = x + 3;
+            for (int i = 0; i < 28; i++) {
+                expected *= expected;
+            }
+            Assert.assertEquals("28 squarings of " + x + " + 3", Integer.valueOf(expected), compiled.apply(x, x, x));
+        }
+    }
+
+    @Test
+    public void testDeepChain() {
+        // Far deeper than any recursive traversal could go
+        ExprNode chain = ExprNode.variable("x");
+        for (int i = 0; i < 200_000; i++) {
+            chain = ExprNode.binary("-", chain, ExprNode.constant(i % 7));
+        }
+        final ExprPlan plan = ExprPlan.of(chain);
+        Assert.assertEquals("Nodes of the deep chain", 1 + 2 * 200_000, plan.size());
+
+        final ExprPlan decoded = ExprPlan.readFrom(plan.toByteBuffer());
+        Assert.assertEquals("Re-encoded deep chain", plan.toByteBuffer(), decoded.toByteBuffer());
+        Assert.assertEquals("Re-built deep chain", plan.toByteBuffer(), ExprPlan.of(decoded.toExprNode()).toByteBuffer());
+
+        long expected = 10;
+        for (int i = 0; i < 200_000; i++) {
+            expected -= i % 7;
+        }
+        Assert.assertEquals("Deep chain at x = 10", Long.valueOf(expected), decoded.compile(EvalModes.LONG_CHECKED).apply(10L, 0L, 0L));
+    }
+
+    @Test
+    public void testMalformed() {
+        for (final byte[] malformed : new byte[][]{
+                {},
+                {0, 0},
+                {0, 1, 4 << 3 | 4},
+                {1, 1, 'x', 1, 2 << 3 | 2},
+                {0, 2, 0, 0},
+                {0, 1, (byte) 0x80},
+                // Variable "x" as a 10-byte varint with a bit above bit 63
+                {1, 1, 'x', 1, (byte) 0x81, (byte) 0x80, (byte) 0x80, (byte) 0x80, (byte) 0x80, (byte) 0x80, (byte) 0x80, (byte) 0x80, (byte) 0x80, 0x02},
+        }) {
+            try {
+                ExprPlan.readFrom(ByteBuffer.wrap(malformed));
+                Assert.fail("Decoded malformed plan " + Arrays.toString(malformed));
+            } catch (final IllegalArgumentException ignored) {
+            }
+        }
+    }
+
+    @Test
+    public void testRandom() {
+        ExprTestSupport.forRandomExpressions(7406938250986247113L, 200, ExprPlanTest::testPlan);
+    }
+}
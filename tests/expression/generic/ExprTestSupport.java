@@ -0,0 +1,122 @@
+package expression.generic;
+
+import base.expected.Expected;
+import base.function.TernaryOperator;
+import org.junit.Assert;
+
+import java.util.Map;
+import java.util.Random;
+import java.util.function.IntToDoubleFunction;
+import java.util.stream.IntStream;
+
+/**
+ * Shared reference evaluation and expression generation for the tests of the harness utilities.
+ */
+/* package-private */ final class ExprTestSupport {
+    private ExprTestSupport() {
+    }
+
+    /* package-private */ record Range(int from, int to) {
+        public Range {
+            if (from > to) {
+                throw new IllegalArgumentException("from [" + from + "] is greater than to [" + to + "]");
+            }
+        }
+
+        public int size() {
+            return to - from + 1;
+        }
+
+        public IntStream stream() {
+            return IntStream.rangeClosed(from, to);
+        }
+    }
+
+    /* package-private */ static final Range MIDDLE = new Range(-5, 5);
+    /* package-private */ static final Range BOTTOM = new Range(Integer.MIN_VALUE, Integer.MIN_VALUE + 10);
+    /* package-private */ static final Range TOP = new Range(Integer.MAX_VALUE - 10, Integer.MAX_VALUE);
+
+    /* package-private */ static String repr(final ExprNode expression) {
+        return expression.getRecursive(
+                String::valueOf,
+                name -> name,
+                (name, arg) -> name + "(" + arg + ")",
+                (name, arg1, arg2) -> "(" + arg1 + name + arg2 + ")"
+        );
+    }
+
+    /* package-private */ static <T> TernaryOperator<T> reference(final ExprNode expression, final EvalMode<T> mode) {
+        return expression.getRecursive(
+                value -> (x, y, z) -> mode.constant().apply(value),
+                EvalMode::variable,
+                (name, arg) -> mode.monadic(name).apply(arg),
+                (name, arg1, arg2) -> mode.dyadic(name).apply(arg1, arg2)
+        );
+    }
+
+    /* package-private */ static <T> T cell(final TernaryOperator<T> operator, final EvalMode<T> mode,
+                                            final int x, final int y, final int z) {
+        return Expected.tryCall(() -> operator.apply(
+                mode.constant().apply(x), mode.constant().apply(y), mode.constant().apply(z)
+        )).getValueOr(null);
+    }
+
+    /* package-private */ static <T> void assertSameResults(
+            final String kind, final ExprNode expression, final TernaryOperator<T> actual,
+            final EvalMode<T> mode, final String modeName,
+            final Range xRange, final Range yRange, final Range zRange
+    ) {
+        final String repr = repr(expression);
+        final TernaryOperator<T> expected = reference(expression, mode);
+        xRange.stream().forEach(x -> yRange.stream().forEach(y -> zRange.stream().forEach(z -> Assert.assertEquals(
+                kind + " \"" + repr + "\" in mode \"" + modeName + "\" at (" + x + ", " + y + ", " + z + ")",
+                cell(expected, mode, x, y, z),
+                cell(actual, mode, x, y, z)
+        ))));
+    }
+
+    private static ExprNode randomExpression(final Random rng, final int depth, final IntToDoubleFunction stopProb) {
+        if (rng.nextDouble(1) < stopProb.applyAsDouble(depth)) {
+            return rng.nextBoolean()
+                    ? ExprNode.constant(rng.nextInt())
+                    : ExprNode.variable(String.valueOf("xyz".charAt(rng.nextInt(3))));
+        }
+        return switch (rng.nextInt(6)) {
+            case 0 -> ExprNode.binary("+", randomExpression(rng, depth + 1, stopProb), randomExpression(rng, depth + 1, stopProb));
+            case 1 -> ExprNode.binary("-", randomExpression(rng, depth + 1, stopProb), randomExpression(rng, depth + 1, stopProb));
+            case 2 -> ExprNode.binary("*", randomExpression(rng, depth + 1, stopProb), randomExpression(rng, depth + 1, stopProb));
+            case 3 -> ExprNode.binary("/", randomExpression(rng, depth + 1, stopProb), randomExpression(rng, depth + 1, stopProb));
+            case 4 -> ExprNode.unary("-", randomExpression(rng, depth + 1, stopProb));
+            default -> ExprNode.unary("count", randomExpression(rng, depth + 1, stopProb));
+        };
+    }
+
+    private static Range randomRange(final Random rng) {
+        final int distance = rng.nextInt(3, 20);
+        final int from = rng.nextInt(Integer.MIN_VALUE, Integer.MAX_VALUE - distance + 1);
+        return new Range(from, from + distance);
+    }
+
+    /**
+     * A check of one expression in one mode, implemented by generic test methods.
+     */
+    /* package-private */ interface ModeCase {
+        <T> void test(ExprNode expression, EvalMode<T> mode, String modeName, Range xRange, Range yRange, Range zRange);
+    }
+
+    /* package-private */ static void forEachMode(final ExprNode expression,
+                                                  final Range xRange, final Range yRange, final Range zRange,
+                                                  final ModeCase test) {
+        for (final Map.Entry<String, EvalMode<?>> mode : EvalModes.MODES.entrySet()) {
+            test.test(expression, mode.getValue(), mode.getKey(), xRange, yRange, zRange);
+        }
+    }
+
+    /* package-private */ static void forRandomExpressions(final long seed, final int count, final ModeCase test) {
+        final Random rng = new Random(seed);
+        for (int i = 0; i < count; i++) {
+            final ExprNode expression = randomExpression(rng, 0, depth -> depth / 5.0);
+            forEachMode(expression, randomRange(rng), randomRange(rng), randomRange(rng), test);
+        }
+    }
+}
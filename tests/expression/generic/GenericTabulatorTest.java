@@ -10,7 +10,6 @@ import org.junit.runner.Result;
 import org.junit.runner.notification.Failure;
 import org.junit.runners.MethodSorters;
 
-import java.math.BigInteger;
 import java.util.Iterator;
 import java.util.Map;
 import java.util.Random;
@@ -30,60 +29,7 @@ public class GenericTabulatorTest {
         }
     }
 
-    private static final EvalMode<Integer> INTEGER = EvalMode
-            .builder(x -> x)
-            .add("-", x -> -x)
-            .add("count", Integer::bitCount)
-            .add("+", Integer::sum)
-            .add("-", (x, y) -> x - y)
-            .add("*", (x, y) -> x * y)
-            .add("/", (x, y) -> x / y)
-            .build();
-
-    // Deliberately ugly and slow code
-    private static long check(final BigInteger bi) {
-        if (bi.compareTo(BigInteger.valueOf(Long.MIN_VALUE)) >= 0 && bi.compareTo(BigInteger.valueOf(Long.MAX_VALUE)) <= 0) {
-            return bi.longValue();
-        } else {
-            throw new RuntimeException("long out of bounds");
-        }
-    }
-
-    private static final EvalMode<Long> LONG_CHECKED = EvalMode
-            .builder(x -> (long) x)
-            .add("-", x -> check(BigInteger.valueOf(x).negate()))
-            .add("count", x -> (long) Long.bitCount(x))
-            .add("+", (x, y) -> check(BigInteger.valueOf(x).add(BigInteger.valueOf(y))))
-            .add("-", (x, y) -> check(BigInteger.valueOf(x).subtract(BigInteger.valueOf(y))))
-            .add("*", (x, y) -> check(BigInteger.valueOf(x).multiply(BigInteger.valueOf(y))))
-            .add("/", (x, y) -> check(BigInteger.valueOf(x).divide(BigInteger.valueOf(y))))
-            .build();
-
-    private static final EvalMode<BigInteger> BIG_INTEGER = EvalMode
-            .builder(BigInteger::valueOf)
-            .add("-", BigInteger::negate)
-            .add("count", x -> BigInteger.valueOf(x.bitCount()))
-            .add("+", BigInteger::add)
-            .add("-", BigInteger::subtract)
-            .add("*", BigInteger::multiply)
-            .add("/", BigInteger::divide)
-            .build();
-
-    private static int trunc(final int i) {
-        return i / 10 * 10;
-    }
-
-    private static final EvalMode<Integer> INTEGER_TRUNCATE = EvalMode
-            .builder(GenericTabulatorTest::trunc)
-            .add("-", x -> trunc(-x))
-            .add("count", x -> trunc(Integer.bitCount(x)))
-            .add("+", (x, y) -> trunc(x + y))
-            .add("-", (x, y) -> trunc(x - y))
-            .add("*", (x, y) -> trunc(x * y))
-            .add("/", (x, y) -> trunc(x / y))
-            .build();
-
-    private static final Map<String, EvalMode<?>> MODES = Map.of("i", INTEGER, "bi", BIG_INTEGER, "lC", LONG_CHECKED, "iT", INTEGER_TRUNCATE);
+    private static final Map<String, EvalMode<?>> MODES = EvalModes.MODES;
 
     private static String fullBraced(final ExprNode expression) {
         return expression.getRecursive(
@@ -0,0 +1,144 @@
+package expression.generic;
+
+import base.function.TernaryOperator;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Read-only tabulation view that evaluates a z-row on its first access and memoizes it.
+ * Indices and cells follow {@code GenericTabulator.tabulate}: cell {@code [i][j][k]} holds the value for
+ * {@code x = x1 + i}, {@code y = y1 + j}, {@code z = z1 + k}, or {@code null} if the evaluation failed.
+ *
+ * <p>The expression is compiled once. Every computed row is a single {@code Object[]}.
+ * The view is safe for concurrent readers: a row requested by several threads at once may be
+ * computed more than once, but only one copy is published and every reader sees that copy.
+ */
+public final class LazyTabulation {
+    private interface RowEvaluator {
+        Object[] evaluate(int x, int y);
+    }
+
+    private final RowEvaluator evaluator;
+    private final int x1;
+    private final int y1;
+    private final int xSize;
+    private final int ySize;
+    private final int zSize;
+    private final AtomicReferenceArray<Object[]> rows;
+
+    private LazyTabulation(final RowEvaluator evaluator, final int x1, final int xSize, final int y1, final int ySize, final int zSize) {
+        this.evaluator = evaluator;
+        this.x1 = x1;
+        this.y1 = y1;
+        this.xSize = xSize;
+        this.ySize = ySize;
+        this.zSize = zSize;
+        this.rows = new AtomicReferenceArray<>(xSize * ySize);
+    }
+
+    private static int size(final String name, final int from, final int to) {
+        final long size = (long) to - from + 1;
+        if (size <= 0) {
+            throw new IllegalArgumentException(name + "1 [" + from + "] is greater than " + name + "2 [" + to + "]");
+        } else if (size > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Range of " + name + " [" + from + ", " + to + "] is too large");
+        }
+        return (int) size;
+    }
+
+    public static <T> LazyTabulation of(
+            final EvalMode<T> mode, final ExprPlan plan,
+            final int x1, final int x2, final int y1, final int y2, final int z1, final int z2
+    ) {
+        final int xSize = size("x", x1, x2);
+        final int ySize = size("y", y1, y2);
+        final int zSize = size("z", z1, z2);
+        if ((long) xSize * ySize > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Too many rows: " + xSize + " * " + ySize);
+        }
+        final TernaryOperator<T> operator = plan.compile(mode);
+        return new LazyTabulation((x, y) -> row(mode, operator, x, y, z1, zSize), x1, xSize, y1, ySize, zSize);
+    }
+
+    public static <T> LazyTabulation of(
+            final EvalMode<T> mode, final ExprNode expression,
+            final int x1, final int x2, final int y1, final int y2, final int z1, final int z2
+    ) {
+        return of(mode, ExprPlan.of(expression), x1, x2, y1, y2, z1, z2);
+    }
+
+    private static <T> Object[] row(final EvalMode<T> mode, final TernaryOperator<T> operator,
+                                    final int x, final int y, final int z1, final int zSize) {
+        final Object[] row = new Object[zSize];
+        final T xValue;
+        final T yValue;
+        try {
+            xValue = mode.constant().apply(x);
+            yValue = mode.constant().apply(y);
+        } catch (final RuntimeException e) {
+            // Every cell of the row would fail the same way
+            return row;
+        }
+        for (int k = 0; k < zSize; k++) {
+            try {
+                row[k] = operator.apply(xValue, yValue, mode.constant().apply(z1 + k));
+            } catch (final RuntimeException e) {
+                row[k] = null;
+            }
+        }
+        return row;
+    }
+
+    public int sizeX() {
+        return xSize;
+    }
+
+    public int sizeY() {
+        return ySize;
+    }
+
+    public int sizeZ() {
+        return zSize;
+    }
+
+    private Object[] cells(final int i, final int j) {
+        Objects.checkIndex(i, xSize);
+        Objects.checkIndex(j, ySize);
+        final int index = i * ySize + j;
+        final Object[] known = rows.get(index);
+        if (known != null) {
+            return known;
+        }
+        final Object[] computed = evaluator.evaluate(x1 + i, y1 + j);
+        return rows.compareAndSet(index, null, computed) ? computed : rows.get(index);
+    }
+
+    /**
+     * Returns a read-only view of the z-row {@code [i][j]}, computing it on the first access.
+     */
+    public List<Object> row(final int i, final int j) {
+        return Collections.unmodifiableList(Arrays.asList(cells(i, j)));
+    }
+
+    public Object get(final int i, final int j, final int k) {
+        Objects.checkIndex(k, zSize);
+        return cells(i, j)[k];
+    }
+
+    /**
+     * Computes all remaining rows and returns a copy of the whole grid in the {@code tabulate} layout.
+     */
+    public Object[][][] materialize() {
+        final Object[][][] result = new Object[xSize][ySize][];
+        for (int i = 0; i < xSize; i++) {
+            for (int j = 0; j < ySize; j++) {
+                result[i][j] = cells(i, j).clone();
+            }
+        }
+        return result;
+    }
+}
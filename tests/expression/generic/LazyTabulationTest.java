@@ -0,0 +1,151 @@
+package expression.generic;
+
+import base.function.TernaryOperator;
+import expression.generic.ExprTestSupport.Range;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.JUnitCore;
+import org.junit.runner.Result;
+import org.junit.runner.notification.Failure;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class LazyTabulationTest {
+    public static void main(String[] args) {
+        final Result res = new JUnitCore().run(LazyTabulationTest.class);
+        for (final Failure fail : res.getFailures()) {
+            System.err.println(fail.getTestHeader() + ": " + fail.getMessage());
+        }
+        if (!res.wasSuccessful()) {
+            System.exit(1);
+        }
+    }
+
+    private static <T> void testMaterialize(final ExprNode expression, final EvalMode<T> mode, final String modeName,
+                                            final Range xRange, final Range yRange, final Range zRange) {
+        final String repr = ExprTestSupport.repr(expression);
+        final LazyTabulation tabulation = LazyTabulation.of(
+                mode, expression,
+                xRange.from(), xRange.to(), yRange.from(), yRange.to(), zRange.from(), zRange.to()
+        );
+        final TernaryOperator<T> reference = ExprTestSupport.reference(expression, mode);
+        final Object[][][] expected = xRange.stream().mapToObj(x ->
+                        yRange.stream().mapToObj(y ->
+                                        zRange.stream().mapToObj(z -> ExprTestSupport.cell(reference, mode, x, y, z))
+                                                .toArray(Object[]::new))
+                                .toArray(Object[][]::new))
+                .toArray(Object[][][]::new);
+        Assert.assertEquals("Cell [1][2][0] of \"" + repr + "\" in mode \"" + modeName + "\"", expected[1][2][0], tabulation.get(1, 2, 0));
+        Assert.assertArrayEquals("Tabulation of \"" + repr + "\" in mode \"" + modeName + "\"", expected, tabulation.materialize());
+    }
+
+    private static EvalMode<Integer> counting(final AtomicInteger evaluations) {
+        return EvalMode.<Integer>builder(x -> x)
+                .add("+", (x, y) -> {
+                    evaluations.incrementAndGet();
+                    return x + y;
+                })
+                .add("/", (x, y) -> x / y)
+                .build();
+    }
+
+    @Test
+    public void testRowsComputedOnDemand() {
+        final AtomicInteger evaluations = new AtomicInteger();
+        final LazyTabulation tabulation = LazyTabulation.of(
+                counting(evaluations), ExprNode.binary("+", ExprNode.variable("x"), ExprNode.variable("z")),
+                0, 9, 0, 9, 100, 109
+        );
+        Assert.assertEquals("Nothing is evaluated up front", 0, evaluations.get());
+
+        Assert.assertEquals(Integer.valueOf(3 + 105), tabulation.get(3, 4, 5));
+        Assert.assertEquals("One z-row is evaluated", 10, evaluations.get());
+        Assert.assertEquals(Integer.valueOf(3 + 109), tabulation.get(3, 4, 9));
+        Assert.assertEquals("The z-row is memoized", 10, evaluations.get());
+
+        final Object[][][] grid = tabulation.materialize();
+        Assert.assertEquals(10, grid.length);
+        Assert.assertEquals("Every z-row is evaluated once", 1000, evaluations.get());
+
+        grid[3][4][5] = null;
+        Assert.assertEquals("Materialized grid is a copy", Integer.valueOf(3 + 105), tabulation.get(3, 4, 5));
+        try {
+            tabulation.row(3, 4).set(5, null);
+            Assert.fail("Row view is writable");
+        } catch (final UnsupportedOperationException ignored) {
+        }
+    }
+
+    @Test
+    public void testErrorsAndBounds() {
+        final LazyTabulation tabulation = LazyTabulation.of(
+                EvalModes.INTEGER, ExprNode.binary("/", ExprNode.constant(12), ExprNode.variable("y")),
+                0, 0, -1, 1, 0, 0
+        );
+        Assert.assertEquals(Integer.valueOf(-12), tabulation.get(0, 0, 0));
+        Assert.assertNull("Division by zero", tabulation.get(0, 1, 0));
+        Assert.assertEquals(Integer.valueOf(12), tabulation.get(0, 2, 0));
+
+        for (final int[] index : new int[][]{{1, 0, 0}, {0, -1, 0}, {0, 3, 0}, {0, 0, 1}}) {
+            try {
+                tabulation.get(index[0], index[1], index[2]);
+                Assert.fail("Read cell " + Arrays.toString(index) + " outside of the tabulation");
+            } catch (final IndexOutOfBoundsException ignored) {
+            }
+        }
+        for (final int[] bounds : new int[][]{{1, 0, 0, 0}, {0, 0, Integer.MIN_VALUE, Integer.MAX_VALUE}}) {
+            try {
+                LazyTabulation.of(EvalModes.INTEGER, ExprNode.variable("x"), bounds[0], bounds[1], bounds[2], bounds[3], 0, 0);
+                Assert.fail("Created tabulation for " + Arrays.toString(bounds));
+            } catch (final IllegalArgumentException ignored) {
+            }
+        }
+    }
+
+    @Test
+    public void testConcurrentReaders() throws InterruptedException, ExecutionException {
+        final AtomicInteger evaluations = new AtomicInteger();
+        final LazyTabulation tabulation = LazyTabulation.of(
+                counting(evaluations), ExprNode.binary("+", ExprNode.variable("x"), ExprNode.binary("+", ExprNode.variable("y"), ExprNode.variable("z"))),
+                0, 19, 0, 19, 0, 19
+        );
+        final ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            final List<Future<?>> readers = new ArrayList<>();
+            for (int t = 0; t < 8; t++) {
+                final Random rng = new Random(t);
+                readers.add(executor.submit(() -> {
+                    for (int n = 0; n < 4000; n++) {
+                        final int i = rng.nextInt(20);
+                        final int j = rng.nextInt(20);
+                        final int k = rng.nextInt(20);
+                        Assert.assertEquals(Integer.valueOf(i + j + k), tabulation.get(i, j, k));
+                        Assert.assertEquals(Integer.valueOf(i + j + 19), tabulation.row(i, j).get(19));
+                    }
+                }));
+            }
+            for (final Future<?> reader : readers) {
+                reader.get();
+            }
+        } finally {
+            executor.shutdown();
+        }
+        final Object[][][] first = tabulation.materialize();
+        final int evaluated = evaluations.get();
+        Assert.assertArrayEquals(first, tabulation.materialize());
+        Assert.assertEquals("Rows are memoized", evaluated, evaluations.get());
+    }
+
+    @Test
+    public void testRandom() {
+        ExprTestSupport.forRandomExpressions(5172430978324712095L, 100, LazyTabulationTest::testMaterialize);
+    }
+}
@@ -0,0 +1,93 @@
+package expression.generic;
+
+import base.function.TernaryOperator;
+
+import java.math.BigInteger;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.Supplier;
+
+/**
+ * Evaluates deep "bi" chains of variables, so there are no constants to fold and the variants
+ * differ only in the tree shape and the operations. Every variant is compiled by {@link ExprOptimizer}:
+ * <ul>
+ *     <li>left-deep: a mode that declares no properties, so the chain is kept as written;</li>
+ *     <li>balanced: the same operations declared associative, so products become balanced trees;</li>
+ *     <li>"bi": the harness mode, which also multiplies large operands with
+ *     {@code BigInteger.parallelMultiply} when the JVM has it (Java 19 or newer)
+ *     and sums {@code +}/{@code -} chains with one accumulator.</li>
+ * </ul>
+ *
+ * <p>Run {@code java expression.generic.ProductChainBenchmark [factors] [iterations]}.
+ */
+public final class ProductChainBenchmark {
+    private static final EvalMode<BigInteger> LEFT_DEEP = EvalMode
+            .builder(BigInteger::valueOf)
+            .add("*", BigInteger::multiply)
+            .add("+", BigInteger::add)
+            .add("-", BigInteger::subtract)
+            .build();
+
+    private static final EvalMode<BigInteger> BALANCED = EvalMode
+            .builder(BigInteger::valueOf)
+            .add("*", BigInteger::multiply, EvalMode.Properties.<BigInteger>none().commutative().associative().total())
+            .add("+", BigInteger::add, EvalMode.Properties.<BigInteger>none().commutative().associative().total())
+            .add("-", BigInteger::subtract)
+            .build();
+
+    private ProductChainBenchmark() {
+    }
+
+    private static double millisPerCall(final Supplier<BigInteger> call, final int iterations) {
+        final long start = System.nanoTime();
+        for (int i = 0; i < iterations; i++) {
+            call.get();
+        }
+        return (System.nanoTime() - start) / 1e6 / iterations;
+    }
+
+    private static ExprNode chain(final int length, final String... names) {
+        ExprNode result = ExprNode.variable("x");
+        for (int i = 1; i < length; i++) {
+            result = ExprNode.binary(names[i % names.length], result, ExprNode.variable("xyz".substring(i % 3, i % 3 + 1)));
+        }
+        return result;
+    }
+
+    private static void compare(final String title, final ExprNode chain, final int iterations) {
+        final Map<String, TernaryOperator<BigInteger>> variants = new LinkedHashMap<>();
+        variants.put("left-deep", new ExprOptimizer<>(LEFT_DEEP).compile(chain));
+        variants.put("balanced", new ExprOptimizer<>(BALANCED).compile(chain));
+        variants.put("\"bi\"", new ExprOptimizer<>(EvalModes.BIG_INTEGER).compile(chain));
+
+        final BigInteger x = BigInteger.valueOf(Integer.MAX_VALUE);
+        final BigInteger y = BigInteger.valueOf(Integer.MIN_VALUE + 1);
+        final BigInteger z = BigInteger.valueOf(Integer.MAX_VALUE - 1);
+        final BigInteger expected = variants.get("left-deep").apply(x, y, z);
+        System.out.println(title + ", result of " + expected.bitLength() + " bits");
+        for (final Map.Entry<String, TernaryOperator<BigInteger>> variant : variants.entrySet()) {
+            final TernaryOperator<BigInteger> operator = variant.getValue();
+            if (!expected.equals(operator.apply(x, y, z))) {
+                throw new AssertionError(variant.getKey() + " computed a different result");
+            }
+            millisPerCall(() -> operator.apply(x, y, z), iterations);
+            System.out.printf("    %-10s %10.3f ms%n", variant.getKey(), millisPerCall(() -> operator.apply(x, y, z), iterations));
+        }
+    }
+
+    public static void main(final String[] args) throws InterruptedException {
+        // Left-deep chains are compiled and evaluated recursively, give them enough stack
+        final Thread thread = new Thread(null, () -> run(args), "benchmark", 1L << 30);
+        thread.start();
+        thread.join();
+    }
+
+    private static void run(final String[] args) {
+        final int factors = args.length > 0 ? Integer.parseInt(args[0]) : 4096;
+        final int iterations = args.length > 1 ? Integer.parseInt(args[1]) : 20;
+        System.out.println(Runtime.getRuntime().availableProcessors() + " processors, parallelMultiply "
+                + (EvalModes.hasParallelMultiply() ? "available" : "not available"));
+        compare("Product of " + factors + " variables", chain(factors, "*"), iterations);
+        compare("Sum of " + factors + " variables with alternating signs", chain(factors, "+", "-"), iterations * 100);
+    }
+}
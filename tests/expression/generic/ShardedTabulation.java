@@ -0,0 +1,319 @@
+package expression.generic;
+
+import base.function.TernaryOperator;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.BiConsumer;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+
+/**
+ * Tabulation split by {@code x} into shards, each computed by a separate worker JVM on the same machine.
+ * Workers write their shard straight into a shared memory-mapped grid file at precomputed offsets,
+ * and a shard whose worker fails is run again.
+ *
+ * <p>The grid file holds a header (ranges, mode name and the {@link ExprPlan} encoding of the expression,
+ * so a worker needs nothing but the file and its shard) followed by the cells in the {@code tabulate}
+ * order. Every cell is a presence byte followed by a fixed-width value, so only modes with fixed-width
+ * values are supported: {@code "i"}, {@code "iT"} and {@code "lC"}. {@link #read(Path)} reads the file
+ * back as one grid.
+ */
+public final class ShardedTabulation {
+    private static final int MAGIC = 0x54414231;
+    private static final int MAX_ATTEMPTS = 3;
+    private static final long WINDOW = 1 << 30;
+
+    private record Codec<T>(EvalMode<T> mode, int width, BiConsumer<ByteBuffer, T> writer, Function<ByteBuffer, T> reader) {
+    }
+
+    private static final Map<String, Codec<?>> CODECS = Map.of(
+            "i", new Codec<>(EvalModes.INTEGER, Integer.BYTES, ByteBuffer::putInt, ByteBuffer::getInt),
+            "iT", new Codec<>(EvalModes.INTEGER_TRUNCATE, Integer.BYTES, ByteBuffer::putInt, ByteBuffer::getInt),
+            "lC", new Codec<>(EvalModes.LONG_CHECKED, Long.BYTES, ByteBuffer::putLong, ByteBuffer::getLong)
+    );
+
+    private ShardedTabulation() {
+    }
+
+    private record Header(String mode, int x1, int x2, int y1, int y2, int z1, int z2, ExprPlan plan, long dataOffset) {
+        private int xSize() {
+            return x2 - x1 + 1;
+        }
+
+        private int ySize() {
+            return y2 - y1 + 1;
+        }
+
+        private int zSize() {
+            return z2 - z1 + 1;
+        }
+
+        private int cellSize() {
+            return 1 + codec(mode).width();
+        }
+
+        private long rowSize() {
+            return (long) zSize() * cellSize();
+        }
+
+        private long fileSize() {
+            return dataOffset + (long) xSize() * ySize() * rowSize();
+        }
+    }
+
+    private static Codec<?> codec(final String mode) {
+        final Codec<?> codec = CODECS.get(mode);
+        if (codec == null) {
+            throw new IllegalArgumentException("Mode \"" + mode + "\" has no fixed-width encoding. Supported ones are: " + CODECS.keySet());
+        }
+        return codec;
+    }
+
+    private static void checkRange(final String name, final int from, final int to) {
+        final long size = (long) to - from + 1;
+        if (size <= 0) {
+            throw new IllegalArgumentException(name + "1 [" + from + "] is greater than " + name + "2 [" + to + "]");
+        } else if (size > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Range of " + name + " [" + from + ", " + to + "] is too large");
+        }
+    }
+
+    private static ByteBuffer encodeHeader(final String mode, final int[] ranges, final ExprPlan plan) {
+        final byte[] name = mode.getBytes(StandardCharsets.UTF_8);
+        final ByteBuffer encodedPlan = plan.toByteBuffer();
+        final ByteBuffer header = ByteBuffer.allocate(Integer.BYTES * (2 + ranges.length + 1) + name.length + encodedPlan.remaining());
+        header.putInt(MAGIC);
+        for (final int bound : ranges) {
+            header.putInt(bound);
+        }
+        header.putInt(name.length).put(name);
+        header.putInt(encodedPlan.remaining()).put(encodedPlan);
+        return header.flip();
+    }
+
+    private static long align(final long offset) {
+        return offset + Long.BYTES - 1 & -Long.BYTES;
+    }
+
+    private static Header readHeader(final FileChannel channel) throws IOException {
+        final ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, Math.min(channel.size(), Integer.MAX_VALUE));
+        try {
+            if (buffer.getInt() != MAGIC) {
+                throw new IllegalArgumentException("Not a tabulation grid file");
+            }
+            final int x1 = buffer.getInt();
+            final int x2 = buffer.getInt();
+            final int y1 = buffer.getInt();
+            final int y2 = buffer.getInt();
+            final int z1 = buffer.getInt();
+            final int z2 = buffer.getInt();
+            final byte[] name = new byte[buffer.getInt()];
+            buffer.get(name);
+            final int planSize = buffer.getInt();
+            final ExprPlan plan = ExprPlan.readFrom(buffer.slice(buffer.position(), planSize));
+            final Header header = new Header(
+                    new String(name, StandardCharsets.UTF_8), x1, x2, y1, y2, z1, z2, plan,
+                    align(buffer.position() + planSize)
+            );
+            if (channel.size() != header.fileSize()) {
+                throw new IllegalArgumentException("Grid file has " + channel.size() + " bytes instead of " + header.fileSize());
+            }
+            return header;
+        } catch (final BufferUnderflowException | IndexOutOfBoundsException | NegativeArraySizeException e) {
+            throw new IllegalArgumentException("Malformed grid file header", e);
+        }
+    }
+
+    public static void tabulate(
+            final Path file, final String mode, final ExprNode expression,
+            final int x1, final int x2, final int y1, final int y2, final int z1, final int z2,
+            final int workers, final int shards
+    ) throws IOException, InterruptedException {
+        tabulate(file, mode, expression, x1, x2, y1, y2, z1, z2, workers, shards, (shard, attempt) -> List.of());
+    }
+
+    /**
+     * @param jvmOptions extra options of the worker JVM for a shard and a zero-based attempt
+     */
+    /* package-private */ static void tabulate(
+            final Path file, final String mode, final ExprNode expression,
+            final int x1, final int x2, final int y1, final int y2, final int z1, final int z2,
+            final int workers, final int shards,
+            final BiFunction<Integer, Integer, List<String>> jvmOptions
+    ) throws IOException, InterruptedException {
+        codec(mode);
+        checkRange("x", x1, x2);
+        checkRange("y", y1, y2);
+        checkRange("z", z1, z2);
+        final int xSize = x2 - x1 + 1;
+        if (workers <= 0 || shards <= 0 || shards > xSize) {
+            throw new IllegalArgumentException("Cannot split " + xSize + " x values into " + shards + " shards for " + workers + " workers");
+        }
+
+        final ExprPlan plan = ExprPlan.of(expression);
+        final ByteBuffer encodedHeader = encodeHeader(mode, new int[]{x1, x2, y1, y2, z1, z2}, plan);
+        final Header header = new Header(mode, x1, x2, y1, y2, z1, z2, plan, align(encodedHeader.remaining()));
+        if (header.rowSize() > WINDOW) {
+            throw new IllegalArgumentException("Range of z [" + z1 + ", " + z2 + "] is too large for one mapped row");
+        }
+        try (final RandomAccessFile output = new RandomAccessFile(file.toFile(), "rw")) {
+            output.setLength(0);
+            output.setLength(header.fileSize());
+            output.getChannel().write(encodedHeader, 0);
+        }
+
+        final ExecutorService executor = Executors.newFixedThreadPool(workers);
+        try {
+            final List<Future<Void>> results = new ArrayList<>();
+            for (int shard = 0; shard < shards; shard++) {
+                final int id = shard;
+                final int from = (int) ((long) xSize * shard / shards);
+                final int to = (int) ((long) xSize * (shard + 1) / shards);
+                results.add(executor.submit(() -> {
+                    runShard(file, id, from, to, jvmOptions);
+                    return null;
+                }));
+            }
+            for (final Future<Void> result : results) {
+                try {
+                    result.get();
+                } catch (final ExecutionException e) {
+                    results.forEach(other -> other.cancel(true));
+                    if (e.getCause() instanceof final IOException cause) {
+                        throw cause;
+                    }
+                    throw new IOException("Shard coordination failed", e.getCause());
+                }
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private static void runShard(
+            final Path file, final int shard, final int from, final int to,
+            final BiFunction<Integer, Integer, List<String>> jvmOptions
+    ) throws IOException, InterruptedException {
+        String output = "";
+        for (int attempt = 0; attempt < MAX_ATTEMPTS; attempt++) {
+            final List<String> command = new ArrayList<>();
+            command.add(Path.of(System.getProperty("java.home"), "bin", "java").toString());
+            command.add("-cp");
+            command.add(System.getProperty("java.class.path"));
+            command.addAll(jvmOptions.apply(shard, attempt));
+            command.add(ShardedTabulation.class.getName());
+            command.add(file.toAbsolutePath().toString());
+            command.add(Integer.toString(from));
+            command.add(Integer.toString(to));
+
+            final Process process = new ProcessBuilder(command).redirectErrorStream(true).start();
+            try {
+                output = new String(process.getInputStream().readAllBytes(), StandardCharsets.UTF_8);
+                if (process.waitFor() == 0) {
+                    return;
+                }
+            } finally {
+                process.destroyForcibly();
+            }
+        }
+        throw new IOException("Shard " + shard + " of x indices [" + from + ", " + to + ") failed "
+                + MAX_ATTEMPTS + " times, last output: " + output.strip());
+    }
+
+    /**
+     * Worker entry point: {@code <grid file> <first x index> <x index after the shard>}.
+     */
+    public static void main(final String[] args) throws IOException {
+        if (args.length != 3) {
+            throw new IllegalArgumentException("Usage: ShardedTabulation <grid file> <from> <to>");
+        }
+        try (final FileChannel channel = FileChannel.open(Path.of(args[0]), StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            final Header header = readHeader(channel);
+            writeShard(channel, header, codec(header.mode()), Integer.parseInt(args[1]), Integer.parseInt(args[2]));
+        }
+    }
+
+    private static <T> void writeShard(final FileChannel channel, final Header header, final Codec<T> codec,
+                                       final int from, final int to) throws IOException {
+        final EvalMode<T> mode = codec.mode();
+        final TernaryOperator<T> operator = header.plan().compile(mode);
+        final long firstRow = (long) from * header.ySize();
+        final long lastRow = (long) to * header.ySize();
+        final long rowsPerWindow = Math.max(1, WINDOW / header.rowSize());
+        final byte[] empty = new byte[header.cellSize()];
+        for (long row = firstRow; row < lastRow; row += rowsPerWindow) {
+            final long count = Math.min(rowsPerWindow, lastRow - row);
+            final MappedByteBuffer window = channel.map(
+                    FileChannel.MapMode.READ_WRITE, header.dataOffset() + row * header.rowSize(), count * header.rowSize()
+            );
+            for (long r = row; r < row + count; r++) {
+                final int x = header.x1() + (int) (r / header.ySize());
+                final int y = header.y1() + (int) (r % header.ySize());
+                for (int k = 0; k < header.zSize(); k++) {
+                    T value;
+                    try {
+                        value = operator.apply(mode.constant().apply(x), mode.constant().apply(y), mode.constant().apply(header.z1() + k));
+                    } catch (final RuntimeException e) {
+                        value = null;
+                    }
+                    if (value == null) {
+                        // A failed earlier attempt may have left data here
+                        window.put(empty);
+                    } else {
+                        window.put((byte) 1);
+                        codec.writer().accept(window, value);
+                    }
+                }
+            }
+            window.force();
+        }
+    }
+
+    /**
+     * Reads a grid file written by {@link #tabulate} in the {@code tabulate} layout.
+     */
+    public static Object[][][] read(final Path file) throws IOException {
+        try (final FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            final Header header = readHeader(channel);
+            return read(channel, header, codec(header.mode()));
+        }
+    }
+
+    private static <T> Object[][][] read(final FileChannel channel, final Header header, final Codec<T> codec) throws IOException {
+        final Object[][][] result = new Object[header.xSize()][header.ySize()][header.zSize()];
+        final long rows = (long) header.xSize() * header.ySize();
+        final long rowsPerWindow = Math.max(1, WINDOW / header.rowSize());
+        for (long row = 0; row < rows; row += rowsPerWindow) {
+            final long count = Math.min(rowsPerWindow, rows - row);
+            final MappedByteBuffer window = channel.map(
+                    FileChannel.MapMode.READ_ONLY, header.dataOffset() + row * header.rowSize(), count * header.rowSize()
+            );
+            for (long r = row; r < row + count; r++) {
+                final Object[] cells = result[(int) (r / header.ySize())][(int) (r % header.ySize())];
+                for (int k = 0; k < cells.length; k++) {
+                    if (window.get() == 0) {
+                        window.position(window.position() + header.cellSize() - 1);
+                    } else {
+                        cells[k] = codec.reader().apply(window);
+                    }
+                }
+            }
+        }
+        return result;
+    }
+}
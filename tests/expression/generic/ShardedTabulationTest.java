@@ -0,0 +1,119 @@
+package expression.generic;
+
+import base.function.TernaryOperator;
+import expression.generic.ExprTestSupport.Range;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.JUnitCore;
+import org.junit.runner.Result;
+import org.junit.runner.notification.Failure;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+public class ShardedTabulationTest {
+    public static void main(String[] args) {
+        final Result res = new JUnitCore().run(ShardedTabulationTest.class);
+        for (final Failure fail : res.getFailures()) {
+            System.err.println(fail.getTestHeader() + ": " + fail.getMessage());
+        }
+        if (!res.wasSuccessful()) {
+            System.exit(1);
+        }
+    }
+
+    // Fails at startup, before the worker touches the grid file
+    private static final List<String> BROKEN_JVM = List.of("-Xmx1k");
+
+    private static final ExprNode EXPRESSION = ExprNode.binary("/",
+            ExprNode.binary("*", ExprNode.variable("x"), ExprNode.unary("-", ExprNode.variable("z"))),
+            ExprNode.binary("-", ExprNode.variable("y"), ExprNode.constant(1))
+    );
+
+    private static <T> Object[][][] reference(final ExprNode expression, final EvalMode<T> mode,
+                                              final Range xRange, final Range yRange, final Range zRange) {
+        final TernaryOperator<T> reference = ExprTestSupport.reference(expression, mode);
+        return xRange.stream().mapToObj(x ->
+                        yRange.stream().mapToObj(y ->
+                                        zRange.stream().mapToObj(z -> ExprTestSupport.cell(reference, mode, x, y, z))
+                                                .toArray(Object[]::new))
+                                .toArray(Object[][]::new))
+                .toArray(Object[][][]::new);
+    }
+
+    private static Object[][][] tabulate(final String modeName, final Range xRange, final Range yRange, final Range zRange,
+                                         final int workers, final int shards, final Map<Integer, Integer> attempts,
+                                         final int brokenShard, final int brokenAttempts) throws IOException, InterruptedException {
+        final Path file = Files.createTempFile("grid", ".bin");
+        try {
+            ShardedTabulation.tabulate(
+                    file, modeName, EXPRESSION,
+                    xRange.from(), xRange.to(), yRange.from(), yRange.to(), zRange.from(), zRange.to(),
+                    workers, shards,
+                    (shard, attempt) -> {
+                        attempts.merge(shard, 1, Integer::sum);
+                        return shard == brokenShard && attempt < brokenAttempts ? BROKEN_JVM : List.of();
+                    }
+            );
+            return ShardedTabulation.read(file);
+        } finally {
+            Files.delete(file);
+        }
+    }
+
+    @Test
+    public void testFixedWidthModes() throws IOException, InterruptedException {
+        final Range xRange = new Range(-5, 4);
+        final Range yRange = new Range(-1, 2);
+        final Range zRange = new Range(Integer.MAX_VALUE - 6, Integer.MAX_VALUE);
+        for (final String modeName : List.of("i", "iT", "lC")) {
+            final Map<Integer, Integer> attempts = new ConcurrentHashMap<>();
+            Assert.assertArrayEquals(
+                    "Sharded tabulation in mode \"" + modeName + "\"",
+                    reference(EXPRESSION, EvalModes.MODES.get(modeName), xRange, yRange, zRange),
+                    tabulate(modeName, xRange, yRange, zRange, 2, 3, attempts, -1, 0)
+            );
+            Assert.assertEquals("Every shard is run once", Map.of(0, 1, 1, 1, 2, 1), attempts);
+        }
+    }
+
+    @Test
+    public void testFailedShardIsRetried() throws IOException, InterruptedException {
+        final Range range = new Range(-2, 2);
+        final Map<Integer, Integer> attempts = new ConcurrentHashMap<>();
+        Assert.assertArrayEquals(
+                "Sharded tabulation with a failed worker",
+                reference(EXPRESSION, EvalModes.INTEGER, range, range, range),
+                tabulate("i", range, range, range, 2, 2, attempts, 1, 2)
+        );
+        Assert.assertEquals("Broken shard is run again", Map.of(0, 1, 1, 3), attempts);
+    }
+
+    @Test
+    public void testFailures() throws IOException, InterruptedException {
+        final Range range = new Range(0, 1);
+        try {
+            tabulate("i", range, range, range, 1, 1, new ConcurrentHashMap<>(), 0, Integer.MAX_VALUE);
+            Assert.fail("Tabulation with a worker that never starts succeeded");
+        } catch (final IOException e) {
+            Assert.assertTrue(e.getMessage(), e.getMessage().contains("Too small"));
+        }
+
+        checkRejected("bi", range, 1, 1);
+        checkRejected("i", range, 1, 3);
+        checkRejected("i", range, 0, 1);
+    }
+
+    private static void checkRejected(final String modeName, final Range range, final int workers, final int shards)
+            throws IOException, InterruptedException {
+        try {
+            tabulate(modeName, range, range, range, workers, shards, new ConcurrentHashMap<>(), -1, 0);
+            Assert.fail("Tabulation in mode \"" + modeName + "\" with " + shards + " shards for " + workers + " workers succeeded");
+        } catch (final IllegalArgumentException ignored) {
+        }
+    }
+}
@@ -0,0 +1,217 @@
+package expression.generic;
+
+import base.function.TernaryOperator;
+
+import java.nio.ByteBuffer;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.IntStream;
+
+/**
+ * Tabulation that picks an evaluation strategy from the estimated amount of work.
+ * The estimate is {@code cells * nodes * cost}, where {@code nodes} is {@link ExprPlan#size()} and
+ * {@code cost} is {@link EvalMode#cost()}. The result of {@link #materialize()} follows
+ * {@code GenericTabulator.tabulate}: cell {@code [i][j][k]} holds the value for
+ * {@code x = x1 + i}, {@code y = y1 + j}, {@code z = z1 + k}, or {@code null} if the evaluation failed.
+ *
+ * <p>Expressions tabulated again through the same {@link Cache} reuse their plan and move
+ * one tier up after every {@code promoteAfter} uses, up to {@link Tier#OPTIMIZED}.
+ */
+public final class TieredTabulation {
+    public enum Tier {
+        /** Nested closures built straight from the tree, nothing to prepare. */
+        CLOSURE,
+        /** {@link ExprPlan#compile}: shared nodes evaluated once, in index order. */
+        FLAT,
+        /** {@link ExprOptimizer#compile}: constants folded and chains rebalanced. */
+        OPTIMIZED,
+        /** {@link ExprOptimizer#compile}, with x-slices evaluated in parallel. */
+        PARALLEL
+    }
+
+    /* package-private */ static final long CLOSURE_LIMIT = 1L << 18;
+    /* package-private */ static final long FLAT_LIMIT = 1L << 22;
+    /* package-private */ static final long OPTIMIZED_LIMIT = 1L << 26;
+
+    private static final Cache CACHE = new Cache(8);
+
+    /**
+     * Plans and use counts of tabulated expressions, keyed by the mode and the encoded plan.
+     */
+    public static final class Cache {
+        private static final int MAX_ENTRIES = 1 << 12;
+
+        private record Key(EvalMode<?> mode, ByteBuffer encoded) {
+        }
+
+        private record Entry(ExprPlan plan, AtomicInteger uses) {
+        }
+
+        private final int promoteAfter;
+        private final int processors;
+        private final Map<Key, Entry> entries = new ConcurrentHashMap<>();
+
+        public Cache(final int promoteAfter) {
+            this(promoteAfter, Runtime.getRuntime().availableProcessors());
+        }
+
+        /* package-private */ Cache(final int promoteAfter, final int processors) {
+            if (promoteAfter <= 0) {
+                throw new IllegalArgumentException("Promotion threshold must be positive: " + promoteAfter);
+            }
+            this.promoteAfter = promoteAfter;
+            this.processors = processors;
+        }
+
+        private Entry use(final EvalMode<?> mode, final ExprNode expression) {
+            final ExprPlan plan = ExprPlan.of(expression);
+            if (entries.size() >= MAX_ENTRIES) {
+                entries.clear();
+            }
+            final Entry entry = entries.computeIfAbsent(
+                    new Key(mode, plan.toByteBuffer()),
+                    key -> new Entry(plan, new AtomicInteger())
+            );
+            entry.uses().incrementAndGet();
+            return entry;
+        }
+    }
+
+    private final Tier tier;
+    private final String reason;
+    private final long cost;
+    private final Slice slice;
+    private final int xSize;
+    private final int ySize;
+    private final int zSize;
+
+    private interface Slice {
+        Object[][] evaluate(int i);
+    }
+
+    private TieredTabulation(final Tier tier, final String reason, final long cost,
+                             final Slice slice, final int xSize, final int ySize, final int zSize) {
+        this.tier = tier;
+        this.reason = reason;
+        this.cost = cost;
+        this.slice = slice;
+        this.xSize = xSize;
+        this.ySize = ySize;
+        this.zSize = zSize;
+    }
+
+    private static int size(final String name, final int from, final int to) {
+        final long size = (long) to - from + 1;
+        if (size <= 0) {
+            throw new IllegalArgumentException(name + "1 [" + from + "] is greater than " + name + "2 [" + to + "]");
+        } else if (size > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Range of " + name + " [" + from + ", " + to + "] is too large");
+        }
+        return (int) size;
+    }
+
+    private static long saturatedMultiply(final long a, final long b) {
+        final long product = a * b;
+        return Math.multiplyHigh(a, b) != 0 || product < 0 ? Long.MAX_VALUE : product;
+    }
+
+    public static <T> TieredTabulation of(
+            final EvalMode<T> mode, final ExprNode expression,
+            final int x1, final int x2, final int y1, final int y2, final int z1, final int z2
+    ) {
+        return of(CACHE, mode, expression, x1, x2, y1, y2, z1, z2);
+    }
+
+    /**
+     * Chooses the tier and prepares the evaluation; nothing is evaluated until {@link #materialize()}.
+     */
+    public static <T> TieredTabulation of(
+            final Cache cache, final EvalMode<T> mode, final ExprNode expression,
+            final int x1, final int x2, final int y1, final int y2, final int z1, final int z2
+    ) {
+        final int xSize = size("x", x1, x2);
+        final int ySize = size("y", y1, y2);
+        final int zSize = size("z", z1, z2);
+
+        final Cache.Entry entry = cache.use(mode, expression);
+        final long cells = saturatedMultiply((long) xSize * ySize, zSize);
+        final long cost = saturatedMultiply(saturatedMultiply(cells, entry.plan().size()), mode.cost());
+        final String estimate = cells + " cells * " + entry.plan().size() + " nodes * " + mode.cost() + " = " + cost;
+
+        Tier tier;
+        String reason;
+        if (cost < CLOSURE_LIMIT) {
+            tier = Tier.CLOSURE;
+            reason = estimate + " is below " + CLOSURE_LIMIT + ", preparing a plan would not pay off";
+        } else if (cost < FLAT_LIMIT) {
+            tier = Tier.FLAT;
+            reason = estimate + " is below " + FLAT_LIMIT + ", a flat plan is enough";
+        } else if (cost < OPTIMIZED_LIMIT) {
+            tier = Tier.OPTIMIZED;
+            reason = estimate + " is below " + OPTIMIZED_LIMIT + ", worth optimizing";
+        } else if (cache.processors > 1) {
+            tier = Tier.PARALLEL;
+            reason = estimate + " is at least " + OPTIMIZED_LIMIT + ", split over " + cache.processors + " processors";
+        } else {
+            tier = Tier.OPTIMIZED;
+            reason = estimate + " is at least " + OPTIMIZED_LIMIT + ", but there is a single processor";
+        }
+
+        final int uses = entry.uses().get();
+        final int promotions = Math.min((uses - 1) / cache.promoteAfter, Tier.OPTIMIZED.ordinal() - tier.ordinal());
+        if (promotions > 0) {
+            final Tier promoted = Tier.values()[tier.ordinal() + promotions];
+            reason += "; promoted from " + tier + " to " + promoted + " after " + uses + " uses";
+            tier = promoted;
+        }
+
+        final TernaryOperator<T> operator = switch (tier) {
+            case CLOSURE -> ExprTestSupport.reference(expression, mode);
+            case FLAT -> entry.plan().compile(mode);
+            case OPTIMIZED, PARALLEL -> new ExprOptimizer<>(mode).compile(entry.plan().toExprNode());
+        };
+        return new TieredTabulation(
+                tier, reason, cost,
+                i -> slice(mode, operator, x1 + i, y1, ySize, z1, zSize),
+                xSize, ySize, zSize
+        );
+    }
+
+    private static <T> Object[][] slice(final EvalMode<T> mode, final TernaryOperator<T> operator,
+                                        final int x, final int y1, final int ySize, final int z1, final int zSize) {
+        final Object[][] slice = new Object[ySize][];
+        for (int j = 0; j < ySize; j++) {
+            final Object[] row = slice[j] = new Object[zSize];
+            for (int k = 0; k < zSize; k++) {
+                row[k] = ExprTestSupport.cell(operator, mode, x, y1 + j, z1 + k);
+            }
+        }
+        return slice;
+    }
+
+    public Tier tier() {
+        return tier;
+    }
+
+    /**
+     * Describes the estimate and the promotions that led to {@link #tier()}.
+     */
+    public String reason() {
+        return reason;
+    }
+
+    public long cost() {
+        return cost;
+    }
+
+    public Object[][][] materialize() {
+        if (saturatedMultiply((long) xSize * ySize, zSize) > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Too many cells: " + xSize + " * " + ySize + " * " + zSize);
+        }
+        final IntStream slices = IntStream.range(0, xSize);
+        return (tier == Tier.PARALLEL ? slices.parallel() : slices)
+                .mapToObj(slice::evaluate)
+                .toArray(Object[][][]::new);
+    }
+}
@@ -0,0 +1,150 @@
+package expression.generic;
+
+import base.function.TernaryOperator;
+import expression.generic.ExprTestSupport.Range;
+import expression.generic.TieredTabulation.Cache;
+import expression.generic.TieredTabulation.Tier;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.JUnitCore;
+import org.junit.runner.Result;
+import org.junit.runner.notification.Failure;
+
+import java.util.List;
+import java.util.Set;
+
+import static expression.generic.ExprTestSupport.MIDDLE;
+
+public class TieredTabulationTest {
+    public static void main(String[] args) {
+        final Result res = new JUnitCore().run(TieredTabulationTest.class);
+        for (final Failure fail : res.getFailures()) {
+            System.err.println(fail.getTestHeader() + ": " + fail.getMessage());
+        }
+        if (!res.wasSuccessful()) {
+            System.exit(1);
+        }
+    }
+
+    // 9 nodes: x, y, *, z, -, x, 1, +, /
+    private static ExprNode expression() {
+        return ExprNode.binary("/",
+                ExprNode.binary("-", ExprNode.binary("*", ExprNode.variable("x"), ExprNode.variable("y")), ExprNode.variable("z")),
+                ExprNode.binary("+", ExprNode.variable("x"), ExprNode.constant(1))
+        );
+    }
+
+    private static <T> TieredTabulation tabulation(final Cache cache, final EvalMode<T> mode,
+                                                   final Range xRange, final Range yRange, final Range zRange) {
+        return TieredTabulation.of(
+                cache, mode, expression(),
+                xRange.from(), xRange.to(), yRange.from(), yRange.to(), zRange.from(), zRange.to()
+        );
+    }
+
+    private static void assertTier(final Tier expected, final TieredTabulation tabulation) {
+        Assert.assertEquals(tabulation.reason(), expected, tabulation.tier());
+    }
+
+    private static <T> void assertMaterialized(final EvalMode<T> mode, final String modeName, final TieredTabulation tabulation,
+                                               final Range xRange, final Range yRange, final Range zRange) {
+        final TernaryOperator<T> reference = ExprTestSupport.reference(expression(), mode);
+        final Object[][][] grid = tabulation.materialize();
+        Assert.assertEquals("Slices", xRange.size(), grid.length);
+        for (int i = 0; i < grid.length; i++) {
+            Assert.assertEquals("Rows", yRange.size(), grid[i].length);
+            for (int j = 0; j < grid[i].length; j++) {
+                Assert.assertEquals("Cells", zRange.size(), grid[i][j].length);
+                for (int k = 0; k < grid[i][j].length; k++) {
+                    final int x = xRange.from() + i;
+                    final int y = yRange.from() + j;
+                    final int z = zRange.from() + k;
+                    Assert.assertEquals(
+                            tabulation.tier() + " tier in mode \"" + modeName + "\" at x=" + x + ", y=" + y + ", z=" + z,
+                            ExprTestSupport.cell(reference, mode, x, y, z),
+                            grid[i][j][k]
+                    );
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testTinyGrids() {
+        // The grid of testFixedRangesFixedModes is cheap enough in every mode
+        for (final EvalMode<?> mode : EvalModes.MODES.values()) {
+            final TieredTabulation tabulation = tabulation(new Cache(8), mode, MIDDLE, MIDDLE, MIDDLE);
+            assertTier(Tier.CLOSURE, tabulation);
+            Assert.assertEquals("Cost", 11 * 11 * 11 * 9 * mode.cost(), tabulation.cost());
+        }
+    }
+
+    @Test
+    public void testLargeGrids() {
+        final Range huge = new Range(-1000, 1000);
+        for (final EvalMode<?> mode : EvalModes.MODES.values()) {
+            final TieredTabulation tabulation = tabulation(new Cache(8), mode, huge, huge, huge);
+            Assert.assertTrue(tabulation.reason(), Set.of(Tier.OPTIMIZED, Tier.PARALLEL).contains(tabulation.tier()));
+        }
+
+        final Range widest = new Range(0, Integer.MAX_VALUE - 1);
+        final TieredTabulation saturated = tabulation(new Cache(8, 4), EvalModes.BIG_INTEGER, widest, widest, widest);
+        assertTier(Tier.PARALLEL, saturated);
+        Assert.assertEquals("Saturated cost", Long.MAX_VALUE, saturated.cost());
+        try {
+            saturated.materialize();
+            Assert.fail("Materialized a grid of 2^93 cells");
+        } catch (final IllegalArgumentException ignored) {
+        }
+    }
+
+    @Test
+    public void testEveryTier() {
+        final Range small = new Range(-20, 19);
+        final Range medium = new Range(-50, 49);
+        assertMaterialized(EvalModes.INTEGER, "i", tabulation(new Cache(8), EvalModes.INTEGER, MIDDLE, MIDDLE, MIDDLE), MIDDLE, MIDDLE, MIDDLE);
+        final TieredTabulation flat = tabulation(new Cache(8), EvalModes.INTEGER, small, small, small);
+        assertTier(Tier.FLAT, flat);
+        assertMaterialized(EvalModes.INTEGER, "i", flat, small, small, small);
+
+        final TieredTabulation optimized = tabulation(new Cache(8), EvalModes.INTEGER_TRUNCATE, medium, medium, medium);
+        assertTier(Tier.OPTIMIZED, optimized);
+        assertMaterialized(EvalModes.INTEGER_TRUNCATE, "iT", optimized, medium, medium, medium);
+
+        // The mode cost alone moves the same grid a tier up
+        final TieredTabulation parallel = tabulation(new Cache(8, 4), EvalModes.LONG_CHECKED, medium, medium, medium);
+        assertTier(Tier.PARALLEL, parallel);
+        assertMaterialized(EvalModes.LONG_CHECKED, "lC", parallel, medium, medium, medium);
+        assertTier(Tier.OPTIMIZED, tabulation(new Cache(8, 4), EvalModes.INTEGER, medium, medium, medium));
+
+        final TieredTabulation single = tabulation(new Cache(8, 1), EvalModes.LONG_CHECKED, medium, medium, medium);
+        assertTier(Tier.OPTIMIZED, single);
+        Assert.assertTrue(single.reason(), single.reason().contains("single processor"));
+    }
+
+    @Test
+    public void testPromotion() {
+        final Cache cache = new Cache(3);
+        final List<Tier> expected = List.of(
+                Tier.CLOSURE, Tier.CLOSURE, Tier.CLOSURE,
+                Tier.FLAT, Tier.FLAT, Tier.FLAT,
+                Tier.OPTIMIZED, Tier.OPTIMIZED, Tier.OPTIMIZED, Tier.OPTIMIZED
+        );
+        for (int use = 0; use < expected.size(); use++) {
+            // A new but equal tree every time, the cache matches plans rather than instances
+            final TieredTabulation tabulation = tabulation(cache, EvalModes.INTEGER, MIDDLE, MIDDLE, MIDDLE);
+            assertTier(expected.get(use), tabulation);
+            Assert.assertEquals(tabulation.reason(), use >= 3, tabulation.reason().contains("promoted from CLOSURE"));
+            assertMaterialized(EvalModes.INTEGER, "i", tabulation, MIDDLE, MIDDLE, MIDDLE);
+        }
+
+        assertTier(Tier.CLOSURE, tabulation(cache, EvalModes.LONG_CHECKED, MIDDLE, MIDDLE, MIDDLE));
+        assertTier(Tier.CLOSURE, TieredTabulation.of(cache, EvalModes.INTEGER, ExprNode.variable("x"), 0, 0, 0, 0, 0, 0));
+
+        try {
+            new Cache(0);
+            Assert.fail("Cache without a promotion threshold created");
+        } catch (final IllegalArgumentException ignored) {
+        }
+    }
+}